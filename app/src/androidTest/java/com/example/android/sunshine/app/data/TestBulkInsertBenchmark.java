@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+/*
+    Compares the bulk insert's compiled statement with the db.insert loop it replaced, on a
+    batch the size of a sync over many locations.  Both run in one transaction, like
+    WeatherProvider.bulkInsert, and the rows per second are logged under the
+    TestBulkInsertBenchmark tag.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 200;
+    private static final int NUM_DAYS = 14;
+    private static final int ROUNDS = 5;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDb;
+    private ContentValues[] mRows;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext);
+        mDb = mHelper.getWritableDatabase();
+
+        mRows = new ContentValues[NUM_LOCATIONS * NUM_DAYS];
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    TestUtilities.TEST_LOCATION + "-" + i);
+            long locationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+            for (int day = 0; day < NUM_DAYS; day++) {
+                ContentValues weather = TestUtilities.createWeatherValues(locationId);
+                // Not on a day boundary, so both paths have some normalizing to do.
+                weather.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE * 1000 + day * DAY_IN_MILLIS + 12345);
+                mRows[i * NUM_DAYS + day] = weather;
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testCompiledStatementMatchesInsertLoop() {
+        insertWithLoop(copyRows());
+        String loopDates = dump();
+        WeatherStorage.delete(mDb, null, null);
+
+        insertWithStatement(copyRows());
+        assertEquals("Error: The compiled statement stored different rows than db.insert",
+                loopDates, dump());
+    }
+
+    public void testBulkInsertThroughput() {
+        // The first round of each warms up the page cache and the statement caches.
+        long loopNanos = 0;
+        long statementNanos = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            ContentValues[] rows = copyRows();
+            long start = System.nanoTime();
+            insertWithLoop(rows);
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                loopNanos += elapsed;
+            }
+
+            rows = copyRows();
+            start = System.nanoTime();
+            insertWithStatement(rows);
+            elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                statementNanos += elapsed;
+            }
+        }
+        assertEquals(mRows.length,
+                DatabaseUtils.queryNumEntries(mDb, WeatherContract.WeatherEntry.TABLE_NAME));
+
+        long rows = (long) mRows.length * ROUNDS;
+        Log.i(LOG_TAG, String.format("%d rows: db.insert loop %.0f rows/s, "
+                        + "compiled statement %.0f rows/s",
+                mRows.length, rows * 1e9 / loopNanos, rows * 1e9 / statementNanos));
+    }
+
+    /**
+     * What bulkInsert used to do: a new Time per row to normalize the date, and db.insert.
+     */
+    private void insertWithLoop(ContentValues[] rows) {
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                long date = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                Time time = new Time();
+                time.set(date);
+                row.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        time.setJulianDay(Time.getJulianDay(date, time.gmtoff)));
+                WeatherStorage.insert(mDb, row);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private void insertWithStatement(ContentValues[] rows) {
+        mDb.beginTransaction();
+        WeatherInserter inserter = new WeatherInserter(mDb);
+        try {
+            for (ContentValues row : rows) {
+                inserter.insert(row);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            mDb.endTransaction();
+        }
+    }
+
+    private ContentValues[] copyRows() {
+        ContentValues[] rows = new ContentValues[mRows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues(mRows[i]);
+        }
+        return rows;
+    }
+
+    private String dump() {
+        // Every column but _id, which AUTOINCREMENT never hands out twice.
+        Cursor cursor = mDb.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                mRows[0].keySet().toArray(new String[mRows[0].size()]), null, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE);
+        try {
+            return DatabaseUtils.dumpCursorToString(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+}
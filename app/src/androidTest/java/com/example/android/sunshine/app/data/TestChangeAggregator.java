@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/*
+    Checks which URIs a write scope's changes are notified on: as narrow as the changes allow,
+    and each only once.
+ */
+public class TestChangeAggregator extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+    private long mOtherLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        mOtherLocationId = mDb.insert(LocationEntry.TABLE_NAME, null, other);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testOneDayIsNotifiedOnItsDate() {
+        ChangeAggregator changes = new ChangeAggregator();
+        changes.weatherChanged(TestUtilities.createWeatherValues(mLocationId));
+        changes.weatherChanged(TestUtilities.createWeatherValues(mLocationId));
+
+        assertEquals(Collections.singletonList(WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE)),
+                changes.getChangedUris(mDb));
+    }
+
+    public void testSeveralDaysAreNotifiedOnTheLocation() {
+        ChangeAggregator changes = new ChangeAggregator();
+        for (int day = 0; day < 7; day++) {
+            ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+            values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            changes.weatherChanged(values);
+        }
+        changes.weatherChanged(TestUtilities.createWeatherValues(mOtherLocationId));
+
+        assertEquals(2, changes.getChangedUris(mDb).size());
+        assertTrue(changes.getChangedUris(mDb).containsAll(Arrays.asList(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                WeatherEntry.buildWeatherLocationWithDate(OTHER_LOCATION, TestUtilities.TEST_DATE))));
+    }
+
+    public void testUpdatedRowsAreLookedUp() {
+        // Stored the way the provider stores it.
+        ContentValues values = TestUtilities.createWeatherValues(mOtherLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        long id = WeatherStorage.insert(mDb, values);
+
+        ChangeAggregator changes = new ChangeAggregator();
+        changes.weatherChanging(mDb, WeatherEntry._ID + " = ?", new String[] {Long.toString(id)});
+
+        assertEquals(Collections.singletonList(WeatherEntry.buildWeatherLocationWithDate(
+                        OTHER_LOCATION, TestUtilities.TEST_DATE)),
+                changes.getChangedUris(mDb));
+    }
+
+    public void testUnplaceableChangesNotifyTheTable() {
+        ChangeAggregator changes = new ChangeAggregator();
+        changes.weatherChanged(TestUtilities.createWeatherValues(mLocationId));
+        changes.weatherChanging(mDb, null, null);
+        changes.locationChanged(mLocationId);
+
+        assertEquals(Arrays.asList(LocationEntry.buildLocationUri(mLocationId),
+                        WeatherEntry.CONTENT_URI),
+                changes.getChangedUris(mDb));
+    }
+
+    public void testNothingChanged() {
+        assertEquals(Collections.<Uri>emptyList(), new ChangeAggregator().getChangedUris(mDb));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the compact results read the same as SQLite's, and measures what they cost: the
+    time to query and read a forecast, the Java allocations, and what each cursor holds on to
+    while it's open.  The figures are logged under the TestColumnarCursor tag.
+ */
+public class TestColumnarCursor extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestColumnarCursor.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+    private static final int QUERIES = 200;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // The forecast list's projection.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private Uri mForecastUri;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75.5 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        mForecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testCompactResultMatchesSqlite() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Cursor expected = mContext.getContentResolver().query(
+                mForecastUri, FORECAST_COLUMNS, null, null, SORT_BY_DATE);
+        Cursor compact = mContext.getContentResolver().query(
+                WeatherContract.buildCompactUri(mForecastUri), FORECAST_COLUMNS, null, null,
+                SORT_BY_DATE);
+
+        assertEquals(NUM_DAYS, compact.getCount());
+        assertEquals(expected.getColumnCount(), compact.getColumnCount());
+        while (expected.moveToNext()) {
+            assertTrue(compact.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                String name = expected.getColumnName(column);
+                assertEquals(name, compact.getColumnName(column));
+                assertEquals(name, expected.getType(column), compact.getType(column));
+                assertEquals(name, expected.getLong(column), compact.getLong(column));
+                assertEquals(name, expected.getDouble(column), compact.getDouble(column));
+                if (expected.getType(column) != Cursor.FIELD_TYPE_FLOAT) {
+                    // SQLite formats some doubles differently from Double.toString.
+                    assertEquals(name, expected.getString(column), compact.getString(column));
+                }
+            }
+        }
+        assertFalse(compact.moveToNext());
+        expected.close();
+        compact.close();
+    }
+
+    public void testNullsAndMixedTypes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        MatrixCursor source = new MatrixCursor(new String[] {"a", "b", "c"});
+        source.addRow(new Object[] {1L, null, null});
+        source.addRow(new Object[] {null, 2.5, null});
+        ColumnarCursor copy = ColumnarCursor.copyOf(source, 10);
+        assertTrue(copy.moveToFirst());
+        assertEquals(1, copy.getInt(0));
+        assertTrue(copy.isNull(1));
+        assertTrue(copy.isNull(2));
+        assertNull(copy.getString(2));
+        assertTrue(copy.moveToNext());
+        assertTrue(copy.isNull(0));
+        assertEquals(2.5, copy.getDouble(1));
+        copy.close();
+
+        source.addRow(new Object[] {"three", null, null});
+        assertNull("Error: A column of mixed types was copied", ColumnarCursor.copyOf(source, 10));
+        source.close();
+    }
+
+    public void testLargeResultIsLeftAlone() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Cursor source = mContext.getContentResolver().query(
+                mForecastUri, FORECAST_COLUMNS, null, null, SORT_BY_DATE);
+        Cursor result = ColumnarCursor.compact(source, NUM_DAYS - 1);
+        assertSame(source, result);
+        assertEquals(-1, result.getPosition());
+        assertEquals(NUM_DAYS, result.getCount());
+        result.close();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testMemoryAndLatency() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Uri compactUri = WeatherContract.buildCompactUri(mForecastUri);
+        // Warm up both paths, so the first query's setup isn't counted.
+        readForecast(mForecastUri);
+        readForecast(compactUri);
+
+        Debug.startAllocCounting();
+        try {
+            long[] sqlite = measure(mForecastUri);
+            long[] compact = measure(compactUri);
+
+            // The resolver wraps what the provider returns, so copy one here to weigh it.
+            Cursor source = mContext.getContentResolver().query(
+                    mForecastUri, FORECAST_COLUMNS, null, null, SORT_BY_DATE);
+            ColumnarCursor copy = ColumnarCursor.copyOf(source, NUM_DAYS);
+            long compactBytes = copy.getValueBytes();
+            copy.close();
+            source.close();
+
+            Log.i(LOG_TAG, String.format("%d rows x %d columns: "
+                            + "SQLite cursor %.3f ms, %d bytes allocated per query, "
+                            + "holds a %d KB window; "
+                            + "compact cursor %.3f ms, %d bytes allocated per query, "
+                            + "holds %d bytes of values",
+                    NUM_DAYS, FORECAST_COLUMNS.length,
+                    sqlite[0] / 1e6, sqlite[1], getCursorWindowKb(),
+                    compact[0] / 1e6, compact[1], compactBytes));
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * @return the mean nanoseconds and Java bytes allocated to query and read the forecast.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measure(Uri uri) {
+        Debug.resetThreadAllocSize();
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            readForecast(uri);
+        }
+        long nanos = System.nanoTime() - start;
+        return new long[] {nanos / QUERIES, Debug.getThreadAllocSize() / QUERIES};
+    }
+
+    /**
+     * Reads every column of every row, as binding the list does.
+     */
+    private void readForecast(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(
+                uri, FORECAST_COLUMNS, null, null, SORT_BY_DATE);
+        double sum = 0;
+        while (cursor.moveToNext()) {
+            sum += cursor.getLong(1) + cursor.getDouble(3) + cursor.getDouble(4)
+                    + cursor.getInt(6) + cursor.getDouble(7) + cursor.getDouble(8);
+            cursor.getString(2);
+            cursor.getString(5);
+        }
+        cursor.close();
+        assertTrue(sum != 0);
+    }
+
+    private static int getCursorWindowKb() {
+        Resources system = Resources.getSystem();
+        int id = system.getIdentifier("config_cursorWindowSize", "integer", "android");
+        return id != 0 ? system.getInteger(id) : 2048;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
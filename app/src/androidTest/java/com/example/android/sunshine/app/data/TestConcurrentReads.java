@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/*
+    Measures how long readers wait while the sync is writing.  A writer thread keeps running
+    bulk insert sized transactions while this thread runs the forecast list query, once with
+    the database in rollback journal mode and once with write-ahead logging.  The latencies are
+    logged under the TestConcurrentReads tag.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 20;
+    private static final int NUM_DAYS = 14;
+    private static final int WRITE_TRANSACTIONS = 50;
+    private static final int MAX_READS = 100000;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLoggingIsEnabled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        Cursor cursor = helper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        helper.close();
+    }
+
+    public void testReaderLatencyDuringBulkInserts() throws Exception {
+        measure("rollback journal", false);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            measure("write-ahead log", true);
+        }
+    }
+
+    private void measure(String label, boolean writeAheadLogging) throws Exception {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, new WeatherDbHelper.Pragmas(
+                writeAheadLogging, "NORMAL", 1024, "MEMORY"));
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final long[] locationIds = insertLocations(db);
+
+        final long[] writeNanos = new long[WRITE_TRANSACTIONS];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < WRITE_TRANSACTIONS; i++) {
+                    long start = System.nanoTime();
+                    db.beginTransaction();
+                    try {
+                        for (long locationId : locationIds) {
+                            for (int day = 0; day < NUM_DAYS; day++) {
+                                ContentValues values = TestUtilities.createWeatherValues(locationId);
+                                values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                                values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, i);
+                                WeatherStorage.insert(db, values);
+                            }
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    writeNanos[i] = System.nanoTime() - start;
+                }
+            }
+        });
+
+        String sql = WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        String[] args = new String[] {TestUtilities.TEST_LOCATION,
+                Long.toString(TestUtilities.TEST_DATE)};
+
+        long[] readNanos = new long[MAX_READS];
+        int reads = 0;
+        writer.start();
+        while (writer.isAlive() && reads < MAX_READS) {
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(sql, args);
+            cursor.getCount();
+            cursor.close();
+            readNanos[reads++] = System.nanoTime() - start;
+        }
+        writer.join();
+        helper.close();
+
+        assertTrue("Error: No reads ran alongside the writes", reads > 0);
+        readNanos = Arrays.copyOf(readNanos, reads);
+        Arrays.sort(readNanos);
+        Arrays.sort(writeNanos);
+        Log.i(LOG_TAG, String.format("%s: %d reads, p50 %.2f ms, p99 %.2f ms, max %.2f ms; "
+                        + "write transaction p50 %.2f ms",
+                label, reads,
+                readNanos[reads / 2] / 1e6,
+                readNanos[(int) (reads * 0.99)] / 1e6,
+                readNanos[reads - 1] / 1e6,
+                writeNanos[WRITE_TRANSACTIONS / 2] / 1e6));
+    }
+
+    private static long[] insertLocations(SQLiteDatabase db) {
+        long[] locationIds = new long[NUM_LOCATIONS];
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            if (i > 0) {
+                location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        TestUtilities.TEST_LOCATION + "-" + i);
+            }
+            locationIds[i] = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+        }
+        return locationIds;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Collections;
+
+/*
+    Checks that the provider's cache of single days answers repeated lookups itself, and that
+    the URIs a write is notified on drop exactly the days it changed.
+ */
+public class TestDayRowCache extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private SQLiteDatabase mDb;
+    private long mDate;
+    private long mNextDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        long locationId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        mDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        mNextDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        for (long date : new long[] {mDate, mNextDate}) {
+            ContentValues values = TestUtilities.createWeatherValues(locationId);
+            values.put(WeatherEntry.COLUMN_DATE, date);
+            WeatherStorage.insert(mDb, values);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testRepeatedLookupIsAHit() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        DayRowCache cache = new DayRowCache();
+        assertNull(cache.get(TestUtilities.TEST_LOCATION, mDate, null));
+        Cursor cursor = cache.put(TestUtilities.TEST_LOCATION, mDate, null,
+                cache.getGeneration(), query(mDate));
+        cursor.close();
+
+        cursor = cache.get(TestUtilities.TEST_LOCATION, mDate, null);
+        assertNotNull("Error: The second lookup should come from the cache", cursor);
+        assertTrue(cursor.moveToFirst());
+        ContentValues expected = TestUtilities.createWeatherValues(1);
+        expected.put(WeatherEntry.COLUMN_DATE, mDate);
+        TestUtilities.validateCurrentRecord("Error: The cached row differs from the stored one",
+                cursor, expected);
+        cursor.close();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testWriteDropsOnlyTheChangedDay() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        DayRowCache cache = new DayRowCache();
+        cache.put(TestUtilities.TEST_LOCATION, mDate, null, cache.getGeneration(),
+                query(mDate)).close();
+        cache.put(TestUtilities.TEST_LOCATION, mNextDate, null, cache.getGeneration(),
+                query(mNextDate)).close();
+
+        cache.invalidate(Collections.singletonList(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, mNextDate)));
+        Cursor cursor = cache.get(TestUtilities.TEST_LOCATION, mDate, null);
+        assertNotNull("Error: A day that wasn't written was dropped", cursor);
+        cursor.close();
+        assertNull("Error: The written day is still cached",
+                cache.get(TestUtilities.TEST_LOCATION, mNextDate, null));
+
+        cache.invalidate(Collections.singletonList(
+                WeatherEntry.buildWeatherLocation("94043")));
+        cursor = cache.get(TestUtilities.TEST_LOCATION, mDate, null);
+        assertNotNull("Error: A write to another location dropped this one", cursor);
+        cursor.close();
+
+        cache.invalidate(Collections.singletonList(LocationEntry.CONTENT_URI));
+        assertNull("Error: Changing locations should drop everything",
+                cache.get(TestUtilities.TEST_LOCATION, mDate, null));
+    }
+
+    public void testResultReadBeforeAWriteIsNotCached() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        DayRowCache cache = new DayRowCache();
+        long generation = cache.getGeneration();
+        Cursor stale = query(mDate);
+        cache.invalidate(Collections.singletonList(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, mDate)));
+
+        Cursor cursor = cache.put(TestUtilities.TEST_LOCATION, mDate, null, generation, stale);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        assertNull(cache.get(TestUtilities.TEST_LOCATION, mDate, null));
+    }
+
+    private Cursor query(long date) {
+        return mDb.query(WeatherEntry.TABLE_NAME, null, WeatherEntry.COLUMN_DATE + " = ?",
+                new String[] {Long.toString(date)}, null, null, null);
+    }
+}
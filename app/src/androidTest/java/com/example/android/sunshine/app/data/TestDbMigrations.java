@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Builds a populated database the way each past version of the app did, opens it with the
+    current WeatherDbHelper, and checks that every row survived and that the schema ended up the
+    same as a fresh install's.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final int NUM_LOCATIONS = 5;
+    private static final int NUM_DAYS = 14;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // The schema as version 2 created it.  Past schemas are frozen here rather than taken from
+    // the helper, which only knows the current one.
+    private static final String[] SCHEMA_V2 = new String[] {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                    + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, "
+                    + "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, "
+                    + "degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    // Version 3 added the location/date index.
+    private static final String[] SCHEMA_V3 = new String[] {
+            SCHEMA_V2[0],
+            SCHEMA_V2[1],
+            "CREATE INDEX weather_location_date ON weather (location_id, date);"
+    };
+
+    // Version 4 let each location set its retention window.
+    private static final String[] SCHEMA_V4 = new String[] {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, "
+                    + "retention_days INTEGER );",
+            SCHEMA_V3[1],
+            SCHEMA_V3[2]
+    };
+
+    // Version 5 added hourly forecasts.
+    private static final String[] SCHEMA_V5 = new String[] {
+            SCHEMA_V4[0],
+            SCHEMA_V4[1],
+            SCHEMA_V4[2],
+            "CREATE TABLE hourly (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                    + "sample_count INTEGER NOT NULL, samples BLOB NOT NULL, "
+                    + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + " UNIQUE (location_id, date) ON CONFLICT REPLACE);"
+    };
+
+    // Version 6 added the archive of past weather.
+    private static final String[] SCHEMA_V6 = new String[] {
+            SCHEMA_V5[0],
+            SCHEMA_V5[1],
+            SCHEMA_V5[2],
+            SCHEMA_V5[3],
+            "CREATE TABLE archive (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "location_id INTEGER NOT NULL, period INTEGER NOT NULL, "
+                    + "start_date INTEGER NOT NULL, day_count INTEGER NOT NULL, "
+                    + "min REAL NOT NULL, max REAL NOT NULL, mean REAL NOT NULL, "
+                    + "weather_id INTEGER NOT NULL, weather_days INTEGER NOT NULL, "
+                    + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + " UNIQUE (location_id, period, start_date) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryVersionHasAMigration() {
+        assertTrue("Error: Add a step to WeatherDbMigrations for the new database version",
+                WeatherDbMigrations.canMigrate(WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION,
+                        WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    public void testUpgradeFromVersion2() {
+        createDatabase(2, SCHEMA_V2);
+        assertUpgradeKeepsRows();
+    }
+
+    public void testUpgradeFromVersion3() {
+        createDatabase(3, SCHEMA_V3);
+        assertUpgradeKeepsRows();
+    }
+
+    public void testUpgradeFromVersion4() {
+        createDatabase(4, SCHEMA_V4);
+        assertUpgradeKeepsRows();
+    }
+
+    public void testUpgradeFromVersion5() {
+        createDatabase(5, SCHEMA_V5);
+        assertUpgradeKeepsRows();
+    }
+
+    public void testUpgradeFromVersion6() {
+        createDatabase(6, SCHEMA_V6);
+        assertUpgradeKeepsRows();
+    }
+
+    public void testUpgradeToFixedPointRoundsToTenths() {
+        createDatabase(6, SCHEMA_V6);
+        SQLiteDatabase old = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 75.46);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1013.25);
+        // Half a tenth below zero: Math.round goes up, SQLite's ROUND would go away from zero.
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -1.25);
+        old.update(WeatherEntry.TABLE_NAME, values, null, null);
+        old.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        Cursor cursor = helper.getReadableDatabase().query(WeatherEntry.TABLE_NAME,
+                new String[] {WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_SHORT_DESC, WeatherEntry.COLUMN_MIN_TEMP},
+                null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(75.5, cursor.getDouble(0));
+        assertEquals(1013.3, cursor.getDouble(1));
+        assertEquals("Asteroids", cursor.getString(2));
+        assertEquals("Error: The upgrade rounded differently from a fresh insert",
+                WeatherStorage.toFixedPoint(-1.25) / 10.0, cursor.getDouble(3));
+        cursor.close();
+        helper.close();
+    }
+
+    public void testFreshInstallUsesIncrementalVacuum() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(WeatherDbHelper.AUTO_VACUUM_INCREMENTAL,
+                DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        helper.close();
+    }
+
+    public void testUpgradeFromUnknownVersionRebuilds() {
+        // Older than any migration, so its rows are discarded, but it still has to come out
+        // with the current schema.
+        createDatabase(WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION - 1, SCHEMA_V2);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        String upgraded = describeSchema(db);
+        helper.close();
+        assertEquals(freshSchema(), upgraded);
+    }
+
+    private void assertUpgradeKeepsRows() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals("Error: Locations were lost in the upgrade",
+                NUM_LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals("Error: Weather was lost in the upgrade",
+                NUM_LOCATIONS * NUM_DAYS, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        assertEquals("Error: The upgrade didn't switch on incremental vacuum",
+                WeatherDbHelper.AUTO_VACUUM_INCREMENTAL,
+                DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[] {Long.toString(TestUtilities.TEST_DATE)}, null, null,
+                WeatherEntry.COLUMN_LOC_KEY);
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: Weather changed in the upgrade",
+                cursor, TestUtilities.createWeatherValues(1));
+        cursor.close();
+        String upgraded = describeSchema(db);
+        helper.close();
+
+        assertEquals("Error: The upgraded schema differs from a fresh install's",
+                freshSchema(), upgraded);
+    }
+
+    private void createDatabase(int version, String[] schema) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                0, null);
+        if (version >= WeatherDbHelper.AUTO_VACUUM_VERSION) {
+            // As WeatherDbHelper created these versions.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + "-" + i);
+            long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+            for (int day = 0; day < NUM_DAYS; day++) {
+                ContentValues weather = TestUtilities.createWeatherValues(locationId);
+                weather.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                db.insert(WeatherEntry.TABLE_NAME, null, weather);
+            }
+        }
+        db.setVersion(version);
+        db.close();
+    }
+
+    private String freshSchema() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        String schema = describeSchema(helper.getReadableDatabase());
+        helper.close();
+        return schema;
+    }
+
+    /**
+     * @return the tables, views and indices with their columns, in a form that doesn't depend on how
+     * the CREATE statements were written.
+     */
+    private static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master "
+                + "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' "
+                + "ORDER BY type, name", null);
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+            schema.append(type).append(' ').append(name).append('\n');
+            if ("table".equals(type) || "view".equals(type)) {
+                appendRows(schema, db, "PRAGMA table_info(" + name + ")");
+                // Includes the indices behind UNIQUE constraints.
+                appendRows(schema, db, "PRAGMA index_list(" + name + ")");
+            } else {
+                appendRows(schema, db, "PRAGMA index_info(" + name + ")");
+            }
+        }
+        objects.close();
+        return schema.toString();
+    }
+
+    private static void appendRows(StringBuilder out, SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                out.append(cursor.getColumnName(i)).append('=').append(cursor.getString(i))
+                        .append(' ');
+            }
+            out.append('\n');
+        }
+        cursor.close();
+    }
+}
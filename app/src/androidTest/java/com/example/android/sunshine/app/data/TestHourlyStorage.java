@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/*
+    Checks that hourly samples survive being packed into a day's block, and that the provider
+    unpacks the right days for the location and date URIs.
+ */
+public class TestHourlyStorage extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 60L * 60 * 1000;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+    private static final int NUM_DAYS = 3;
+
+    private long mFirstDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mFirstDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE * 1000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testBlockRoundTrip() {
+        HourlySamples samples = createDay(mFirstDate, 24);
+        HourlySamples decoded = HourlySamples.decode(mFirstDate, samples.encode());
+
+        assertEquals(24, decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            assertEquals(samples.getTime(i), decoded.getTime(i));
+            assertEquals(-5.25 + i, decoded.getTemperature(i), 0.005);
+            assertEquals(80.0 - i, decoded.getHumidity(i), 0.5);
+            assertEquals(1013.2, decoded.getPressure(i), 0.05);
+            assertEquals(3.75, decoded.getWindSpeed(i), 0.005);
+            assertEquals(i * 15.0, decoded.getDegrees(i), 0.5);
+            assertEquals(800 + i, decoded.getWeatherId(i));
+        }
+        // 13 bytes a sample, and a 2 byte header.
+        assertEquals(2 + 24 * 13, samples.encode().length);
+    }
+
+    public void testProviderUnpacksDays() {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int day = 0; day < NUM_DAYS; day++) {
+            long date = WeatherContract.normalizeDate(mFirstDate + day * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+            days[day] = HourlyEntry.buildSamplesValues(locationId, createDay(date, 8));
+        }
+        assertEquals(NUM_DAYS, mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, days));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals(NUM_DAYS * 8, cursor.getCount());
+        long lastTime = 0;
+        int timeIndex = cursor.getColumnIndex(HourlyEntry.COLUMN_TIME);
+        while (cursor.moveToNext()) {
+            assertTrue("Error: Samples aren't in time order", cursor.getLong(timeIndex) > lastTime);
+            lastTime = cursor.getLong(timeIndex);
+        }
+        cursor.close();
+
+        long secondDate = days[1].getAsLong(HourlyEntry.COLUMN_DATE);
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithDate(TestUtilities.TEST_LOCATION, secondDate),
+                new String[] {HourlyEntry.COLUMN_TIME, HourlyEntry.COLUMN_TEMP}, null, null, null);
+        assertEquals(8, cursor.getCount());
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(secondDate, cursor.getLong(0));
+        assertEquals(-5.25, cursor.getDouble(1), 0.005);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithStartDate(TestUtilities.TEST_LOCATION, secondDate),
+                null, null, null, null);
+        assertEquals((NUM_DAYS - 1) * 8, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * @return samples evenly spread over the day.
+     */
+    static HourlySamples createDay(long date, int count) {
+        HourlySamples samples = new HourlySamples(date, count);
+        long step = DAY_IN_MILLIS / count;
+        for (int i = 0; i < count; i++) {
+            samples.add(date + i * step, -5.25 + i, 80 - i, 1013.2, 3.75, i * 15, 800 + i);
+        }
+        return samples;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
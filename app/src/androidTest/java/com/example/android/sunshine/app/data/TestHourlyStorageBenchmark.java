@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Compares the packed per-day hourly blocks with a plain table holding a row per hour.  Both
+    scratch databases get the same samples; we time inserting them, reading back one location's
+    week, and compare the size of the files.  Results are logged under the
+    TestHourlyStorageBenchmark tag.
+ */
+public class TestHourlyStorageBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHourlyStorageBenchmark.class.getSimpleName();
+
+    private static final String PACKED_DATABASE = "hourly-packed.db";
+    private static final String ROWS_DATABASE = "hourly-rows.db";
+
+    private static final int NUM_LOCATIONS = 20;
+    private static final int NUM_DAYS = 14;
+    private static final int SAMPLES_PER_DAY = 24;
+    private static final int READ_DAYS = 7;
+    private static final int READ_REPEATS = 20;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final String SQL_CREATE_ROWS_TABLE = "CREATE TABLE hourly_rows (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, " +
+            "time INTEGER NOT NULL, temp REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            "weather_id INTEGER NOT NULL, UNIQUE (location_id, time) ON CONFLICT REPLACE);";
+
+    private long mFirstDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(PACKED_DATABASE);
+        mContext.deleteDatabase(ROWS_DATABASE);
+        mFirstDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE * 1000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(PACKED_DATABASE);
+        mContext.deleteDatabase(ROWS_DATABASE);
+        super.tearDown();
+    }
+
+    public void testPackedBlocksAgainstRowPerHour() {
+        SQLiteDatabase packed = mContext.openOrCreateDatabase(PACKED_DATABASE, 0, null);
+        SQLiteDatabase rows = mContext.openOrCreateDatabase(ROWS_DATABASE, 0, null);
+        try {
+            packed.execSQL(WeatherDbHelper.SQL_CREATE_HOURLY_TABLE);
+            rows.execSQL(SQL_CREATE_ROWS_TABLE);
+
+            long start = System.nanoTime();
+            insertPacked(packed);
+            long packedInsertNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            insertRows(rows);
+            long rowsInsertNanos = System.nanoTime() - start;
+
+            long weekEnd = mFirstDate + READ_DAYS * DAY_IN_MILLIS;
+            double packedSum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < READ_REPEATS; i++) {
+                packedSum = readPacked(packed, weekEnd);
+            }
+            long packedReadNanos = (System.nanoTime() - start) / READ_REPEATS;
+            double rowsSum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < READ_REPEATS; i++) {
+                rowsSum = readRows(rows, weekEnd);
+            }
+            long rowsReadNanos = (System.nanoTime() - start) / READ_REPEATS;
+
+            // The blocks keep temperatures to a hundredth of a degree, so the week's sums agree
+            // to within that per sample.
+            assertEquals(rowsSum, packedSum, READ_DAYS * SAMPLES_PER_DAY * 0.005);
+
+            long packedBytes = getDatabaseBytes(packed);
+            long rowsBytes = getDatabaseBytes(rows);
+            assertTrue("Error: Packed blocks take more space than a row per hour",
+                    packedBytes < rowsBytes);
+
+            Log.i(LOG_TAG, String.format("%d locations x %d days x %d samples: "
+                            + "insert %.2f ms packed, %.2f ms rows; "
+                            + "week read %.3f ms packed, %.3f ms rows; "
+                            + "%d KB packed, %d KB rows",
+                    NUM_LOCATIONS, NUM_DAYS, SAMPLES_PER_DAY,
+                    packedInsertNanos / 1e6, rowsInsertNanos / 1e6,
+                    packedReadNanos / 1e6, rowsReadNanos / 1e6,
+                    packedBytes / 1024, rowsBytes / 1024));
+        } finally {
+            packed.close();
+            rows.close();
+        }
+    }
+
+    private void insertPacked(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (long locationId = 1; locationId <= NUM_LOCATIONS; locationId++) {
+                for (int day = 0; day < NUM_DAYS; day++) {
+                    HourlySamples samples = TestHourlyStorage.createDay(
+                            mFirstDate + day * DAY_IN_MILLIS, SAMPLES_PER_DAY);
+                    db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null,
+                            WeatherContract.HourlyEntry.buildSamplesValues(locationId, samples));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void insertRows(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (long locationId = 1; locationId <= NUM_LOCATIONS; locationId++) {
+                for (int day = 0; day < NUM_DAYS; day++) {
+                    HourlySamples samples = TestHourlyStorage.createDay(
+                            mFirstDate + day * DAY_IN_MILLIS, SAMPLES_PER_DAY);
+                    for (int i = 0; i < samples.size(); i++) {
+                        values.clear();
+                        values.put("location_id", locationId);
+                        values.put("time", samples.getTime(i));
+                        values.put("temp", samples.getTemperature(i));
+                        values.put("humidity", samples.getHumidity(i));
+                        values.put("pressure", samples.getPressure(i));
+                        values.put("wind", samples.getWindSpeed(i));
+                        values.put("degrees", samples.getDegrees(i));
+                        values.put("weather_id", samples.getWeatherId(i));
+                        db.insert("hourly_rows", null, values);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the sum of the week's temperatures, so the work can't be skipped.
+     */
+    private double readPacked(SQLiteDatabase db, long weekEnd) {
+        double sum = 0;
+        Cursor cursor = db.query(WeatherContract.HourlyEntry.TABLE_NAME,
+                new String[] {WeatherContract.HourlyEntry.COLUMN_DATE,
+                        WeatherContract.HourlyEntry.COLUMN_SAMPLES},
+                WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherContract.HourlyEntry.COLUMN_DATE + " >= ? AND "
+                        + WeatherContract.HourlyEntry.COLUMN_DATE + " < ?",
+                new String[] {"1", Long.toString(mFirstDate), Long.toString(weekEnd)},
+                null, null, WeatherContract.HourlyEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                HourlySamples samples = HourlySamples.decode(cursor.getLong(0), cursor.getBlob(1));
+                for (int i = 0; i < samples.size(); i++) {
+                    sum += samples.getTemperature(i);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return sum;
+    }
+
+    private double readRows(SQLiteDatabase db, long weekEnd) {
+        double sum = 0;
+        Cursor cursor = db.query("hourly_rows", new String[] {"time", "temp"},
+                "location_id = ? AND time >= ? AND time < ?",
+                new String[] {"1", Long.toString(mFirstDate), Long.toString(weekEnd)},
+                null, null, "time ASC");
+        try {
+            while (cursor.moveToNext()) {
+                sum += cursor.getDouble(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return sum;
+    }
+
+    private static long getDatabaseBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.concurrent.CountDownLatch;
+
+/*
+    Checks that locations resolve to one row however many syncs ask at once, that a known
+    location is answered from memory, and that deleting locations is noticed.
+ */
+public class TestLocationRegistry extends AndroidTestCase {
+
+    private static final int NUM_THREADS = 8;
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        // Other tests delete the database file behind the provider's back.
+        LocationRegistry.invalidate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testInsertKeepsExistingLocation() {
+        Uri first = mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        Uri second = mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        assertEquals(first, second);
+        assertEquals(1, countLocations());
+    }
+
+    public void testKnownLocationIsAnsweredFromMemory() {
+        long id = LocationRegistry.resolve(mResolver, TestUtilities.TEST_LOCATION,
+                TestUtilities.createNorthPoleLocationValues());
+        int hits = LocationRegistry.getHitCount();
+
+        assertEquals(id, LocationRegistry.resolve(mResolver, TestUtilities.TEST_LOCATION,
+                TestUtilities.createNorthPoleLocationValues()));
+        assertEquals(id, LocationRegistry.find(mResolver, TestUtilities.TEST_LOCATION));
+        assertEquals(hits + 2, LocationRegistry.getHitCount());
+    }
+
+    public void testDeleteIsNoticed() {
+        LocationRegistry.resolve(mResolver, TestUtilities.TEST_LOCATION,
+                TestUtilities.createNorthPoleLocationValues());
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals(-1, LocationRegistry.find(mResolver, TestUtilities.TEST_LOCATION));
+
+        long id = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        assertEquals(id, LocationRegistry.find(mResolver, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testConcurrentResolvesShareOneRow() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] ids = new long[NUM_THREADS];
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int i = 0; i < NUM_THREADS; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    ids[index] = LocationRegistry.resolve(mResolver, TestUtilities.TEST_LOCATION,
+                            TestUtilities.createNorthPoleLocationValues());
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, countLocations());
+        for (long id : ids) {
+            assertTrue(id > 0);
+            assertEquals(ids[0], id);
+        }
+    }
+
+    private int countLocations() {
+        Cursor cursor = mResolver.query(LocationEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
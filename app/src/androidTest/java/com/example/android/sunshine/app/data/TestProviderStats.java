@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider counts what it's asked to do under the right URI, that the
+    percentiles it reports are in order, and that a delete on the diagnostics starts them over.
+ */
+public class TestProviderStats extends AndroidTestCase {
+
+    private static final int NUM_DAYS = 5;
+    private static final int QUERIES = 20;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        mResolver.delete(DiagnosticsEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testOperationsAreCounted() {
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, days);
+        for (int i = 0; i < QUERIES; i++) {
+            Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+            cursor.close();
+        }
+
+        Cursor stats = mResolver.query(DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+        assertTrue("Error: No stats were kept", stats.getCount() >= 3);
+
+        assertRow(stats, "insert", WeatherContract.PATH_LOCATION, 1, 1, 1);
+        assertRow(stats, "bulkInsert", WeatherContract.PATH_WEATHER, 1, NUM_DAYS, NUM_DAYS);
+        assertEquals(1, getLong(stats, DiagnosticsEntry.COLUMN_TRANSACTIONS));
+        assertRow(stats, "query", WeatherContract.PATH_WEATHER, QUERIES, 0,
+                ProviderStats.COUNT_QUERY_ROWS ? QUERIES * NUM_DAYS : 0);
+
+        long p50 = getLong(stats, DiagnosticsEntry.COLUMN_P50_MICROS);
+        long p95 = getLong(stats, DiagnosticsEntry.COLUMN_P95_MICROS);
+        long p99 = getLong(stats, DiagnosticsEntry.COLUMN_P99_MICROS);
+        long max = getLong(stats, DiagnosticsEntry.COLUMN_MAX_MICROS);
+        assertTrue("Error: Percentiles out of order", p50 <= p95 && p95 <= p99 && p99 <= max);
+        String callers = stats.getString(stats.getColumnIndex(DiagnosticsEntry.COLUMN_CALLERS));
+        assertTrue("Error: Caller wasn't recorded: " + callers,
+                callers.endsWith("=" + QUERIES));
+        stats.close();
+    }
+
+    public void testDeleteResets() {
+        mResolver.query(LocationEntry.CONTENT_URI, null, null, null, null).close();
+        assertTrue(mResolver.delete(DiagnosticsEntry.CONTENT_URI, null, null) > 0);
+
+        Cursor stats = mResolver.query(DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Stats survived a reset", 0, stats.getCount());
+        stats.close();
+    }
+
+    /**
+     * Moves the cursor to the row for the operation on the URI and checks its counts.
+     */
+    private static void assertRow(Cursor stats, String operation, String uri, long calls,
+                                  long rowsIn, long rowsOut) {
+        int operationIndex = stats.getColumnIndex(DiagnosticsEntry.COLUMN_OPERATION);
+        int uriIndex = stats.getColumnIndex(DiagnosticsEntry.COLUMN_URI);
+        stats.moveToPosition(-1);
+        while (stats.moveToNext()) {
+            if (operation.equals(stats.getString(operationIndex))
+                    && uri.equals(stats.getString(uriIndex))) {
+                assertEquals(operation + " " + uri, calls,
+                        getLong(stats, DiagnosticsEntry.COLUMN_CALLS));
+                assertEquals(operation + " " + uri, rowsIn,
+                        getLong(stats, DiagnosticsEntry.COLUMN_ROWS_IN));
+                assertEquals(operation + " " + uri, rowsOut,
+                        getLong(stats, DiagnosticsEntry.COLUMN_ROWS_OUT));
+                return;
+            }
+        }
+        fail("Error: No stats for " + operation + " " + uri);
+    }
+
+    private static long getLong(Cursor stats, String column) {
+        return stats.getLong(stats.getColumnIndex(column));
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
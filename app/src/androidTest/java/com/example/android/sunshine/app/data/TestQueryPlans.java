@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL behind each of the provider's query URIs, and on the
+    selections the app passes to the plain URIs, and fails if any of them scans a whole table
+    or has to sort its results.  The database is filled with many locations and a long history
+    and ANALYZEd first, so the planner makes the choices it would make on a well used device.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 50;
+    private static final int NUM_DAYS = 60;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final String SORT_BY_DATE = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        fillDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWeatherWithLocation() {
+        assertUsesLocationDateIndex(WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, SORT_BY_DATE));
+    }
+
+    public void testWeatherWithLocationAndStartDate() {
+        assertUsesLocationDateIndex(WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, SORT_BY_DATE));
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        assertUsesLocationDateIndex(WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, null));
+    }
+
+    public void testWeatherByLocationKeyAndDate() {
+        // How the sync finds the days it already has for a location.
+        assertUsesLocationDateIndex(WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.CONTENT_URI, null,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                null));
+    }
+
+    public void testWeatherById() {
+        assertNoFullScan(WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.CONTENT_URI, null,
+                WeatherContract.WeatherEntry._ID + " = ?", null));
+    }
+
+    public void testOldWeather() {
+        // How the sync finds the days that are over.
+        assertNoFullScan(WeatherProvider.buildQuerySql(
+                WeatherContract.WeatherEntry.CONTENT_URI, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?", null));
+    }
+
+    public void testLocationBySetting() {
+        assertNoFullScan(WeatherProvider.buildQuerySql(
+                WeatherContract.LocationEntry.CONTENT_URI, null,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null));
+    }
+
+    private void assertUsesLocationDateIndex(String sql) {
+        List<String> plan = explain(sql);
+        assertNoFullScan(sql, plan);
+        boolean usesIndex = false;
+        for (String step : plan) {
+            if (step.contains(WeatherContract.WeatherEntry.INDEX_LOCATION_DATE)) {
+                usesIndex = true;
+            }
+        }
+        assertTrue("Error: " + sql + " doesn't use the location/date index: " + plan, usesIndex);
+    }
+
+    private void assertNoFullScan(String sql) {
+        assertNoFullScan(sql, explain(sql));
+    }
+
+    private static void assertNoFullScan(String sql, List<String> plan) {
+        for (String step : plan) {
+            // "SCAN TABLE x" on older SQLite, "SCAN x" on newer ones.  Both read every row, even
+            // when they go through an index to do it.
+            assertFalse("Error: " + sql + " scans a whole table: " + plan,
+                    step.startsWith("SCAN"));
+            assertFalse("Error: " + sql + " sorts its results: " + plan,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private List<String> explain(String sql) {
+        // The plan doesn't depend on the argument values, only on there being one per ?.
+        int argCount = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                argCount++;
+            }
+        }
+        String[] args = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = "1";
+        }
+
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        Log.d(LOG_TAG, sql + " -> " + plan);
+        return plan;
+    }
+
+    private void fillDatabase() {
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_LOCATIONS; i++) {
+                ContentValues location = TestUtilities.createNorthPoleLocationValues();
+                if (i > 0) {
+                    location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            TestUtilities.TEST_LOCATION + "-" + i);
+                }
+                long locationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+                for (int day = 0; day < NUM_DAYS; day++) {
+                    ContentValues weather = TestUtilities.createWeatherValues(locationId);
+                    weather.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                            TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    WeatherStorage.insert(mDb, weather);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        mDb.execSQL("ANALYZE");
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the cached SQL is what SQLiteQueryBuilder would have built, and measures what a
+    forecast query costs with and without the cache: building the SQL alone, and the whole query.
+    The figures are logged under the TestQuerySqlCache tag.
+ */
+public class TestQuerySqlCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQuerySqlCache.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+    private static final int BUILDS = 5000;
+    private static final int QUERIES = 500;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // As the provider joins them.
+    private static final String TABLES = WeatherEntry.TABLE_NAME + " INNER JOIN "
+            + LocationEntry.TABLE_NAME + " ON " + WeatherEntry.TABLE_NAME + "."
+            + WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "."
+            + LocationEntry._ID;
+
+    private static final String SELECTION = LocationEntry.TABLE_NAME + "."
+            + LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND "
+            + WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    // The forecast list's and the detail view's projections, which the app alternates between.
+    private static final String[][] PROJECTIONS = {
+            {
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                    WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_SHORT_DESC,
+                    WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_MIN_TEMP,
+                    LocationEntry.COLUMN_LOCATION_SETTING,
+                    WeatherEntry.COLUMN_WEATHER_ID,
+                    LocationEntry.COLUMN_COORD_LAT,
+                    LocationEntry.COLUMN_COORD_LONG
+            },
+            {
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                    WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_SHORT_DESC,
+                    WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE,
+                    WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherEntry.COLUMN_DEGREES,
+                    WeatherEntry.COLUMN_WEATHER_ID,
+                    LocationEntry.COLUMN_LOCATION_SETTING
+            }
+    };
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteQueryBuilder mBuilder;
+    private String[] mArgs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        mBuilder = new SQLiteQueryBuilder();
+        mBuilder.setTables(TABLES);
+        mArgs = new String[] {TestUtilities.TEST_LOCATION,
+                Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))};
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testSqlMatchesBuilder() {
+        QuerySqlCache cache = new QuerySqlCache(mBuilder, WeatherEntry.TABLE_NAME);
+        for (String[] projection : PROJECTIONS) {
+            for (String sortOrder : new String[] {null, SORT_BY_DATE}) {
+                String sql = cache.getSql(WeatherProvider.WEATHER_WITH_LOCATION, projection,
+                        SELECTION, sortOrder);
+                assertEquals(mBuilder.buildQuery(projection, SELECTION, null, null, null,
+                        sortOrder, null), sql);
+                // An equal projection in another array finds the same SQL.
+                assertSame(sql, cache.getSql(WeatherProvider.WEATHER_WITH_LOCATION,
+                        projection.clone(), SELECTION, sortOrder));
+            }
+        }
+        assertEquals(PROJECTIONS.length * 2, cache.getBuildCount());
+
+        // The cache keeps its own copy of the projection.
+        String[] projection = PROJECTIONS[0].clone();
+        String sql = cache.getSql(WeatherProvider.WEATHER_WITH_LOCATION, projection,
+                SELECTION, SORT_BY_DATE);
+        projection[1] = WeatherEntry.COLUMN_HUMIDITY;
+        assertNotSame(sql, cache.getSql(WeatherProvider.WEATHER_WITH_LOCATION, projection,
+                SELECTION, SORT_BY_DATE));
+    }
+
+    public void testProviderQueriesAreCached() {
+        // Whatever order the tests run in, these are cached after the first round.
+        for (int i = 0; i < 2; i++) {
+            for (String[] projection : PROJECTIONS) {
+                String sql = WeatherProvider.buildQuerySql(
+                        WeatherEntry.buildWeatherLocationWithStartDate(
+                                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        projection, null, SORT_BY_DATE);
+                assertSame(sql, WeatherProvider.buildQuerySql(
+                        WeatherEntry.buildWeatherLocationWithStartDate(
+                                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        projection.clone(), null, SORT_BY_DATE));
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testQueryOverhead() {
+        QuerySqlCache cache = new QuerySqlCache(mBuilder, WeatherEntry.TABLE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        // Warm up both paths and the connection's prepared statements.
+        for (String[] projection : PROJECTIONS) {
+            readForecast(mBuilder.query(db, projection, SELECTION, mArgs, null, null,
+                    SORT_BY_DATE));
+            readForecast(cache.query(db, WeatherProvider.WEATHER_WITH_LOCATION, projection,
+                    SELECTION, mArgs, SORT_BY_DATE));
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BUILDS; i++) {
+                mBuilder.buildQuery(PROJECTIONS[i % PROJECTIONS.length], SELECTION, null, null,
+                        null, SORT_BY_DATE, null);
+            }
+            long builderBuildNanos = (System.nanoTime() - start) / BUILDS;
+            long builderBuildBytes = Debug.getThreadAllocSize() / BUILDS;
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BUILDS; i++) {
+                cache.getSql(WeatherProvider.WEATHER_WITH_LOCATION,
+                        PROJECTIONS[i % PROJECTIONS.length], SELECTION, SORT_BY_DATE);
+            }
+            long cacheBuildNanos = (System.nanoTime() - start) / BUILDS;
+            long cacheBuildBytes = Debug.getThreadAllocSize() / BUILDS;
+            assertEquals("Error: Looking up cached SQL allocated", 0, cacheBuildBytes);
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                readForecast(mBuilder.query(db, PROJECTIONS[i % PROJECTIONS.length], SELECTION,
+                        mArgs, null, null, SORT_BY_DATE));
+            }
+            long builderQueryNanos = (System.nanoTime() - start) / QUERIES;
+            long builderQueryBytes = Debug.getThreadAllocSize() / QUERIES;
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                readForecast(cache.query(db, WeatherProvider.WEATHER_WITH_LOCATION,
+                        PROJECTIONS[i % PROJECTIONS.length], SELECTION, mArgs, SORT_BY_DATE));
+            }
+            long cacheQueryNanos = (System.nanoTime() - start) / QUERIES;
+            long cacheQueryBytes = Debug.getThreadAllocSize() / QUERIES;
+
+            Log.i(LOG_TAG, String.format("%d projections, %d rows: "
+                            + "building SQL %.2f us and %d bytes with the builder, "
+                            + "%.2f us and %d bytes cached; "
+                            + "whole query %.3f ms and %d bytes with the builder, "
+                            + "%.3f ms and %d bytes cached",
+                    PROJECTIONS.length, NUM_DAYS,
+                    builderBuildNanos / 1e3, builderBuildBytes,
+                    cacheBuildNanos / 1e3, cacheBuildBytes,
+                    builderQueryNanos / 1e6, builderQueryBytes,
+                    cacheQueryNanos / 1e6, cacheQueryBytes));
+        } finally {
+            Debug.stopAllocCounting();
+            helper.close();
+        }
+    }
+
+    private static void readForecast(Cursor cursor) {
+        assertEquals(NUM_DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
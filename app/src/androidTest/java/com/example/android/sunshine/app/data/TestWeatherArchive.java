@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+
+/*
+    Checks that trimming moves expired days into weekly summaries with the right figures, and
+    that years of history end up in a bounded number of archive rows.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testExpiredWeekIsSummarized() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // A whole week, three weeks back.
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.WEEK_OF_YEAR, -3);
+        int daysIntoWeek = (calendar.get(Calendar.DAY_OF_WEEK)
+                - calendar.getFirstDayOfWeek() + 7) % 7;
+        calendar.add(Calendar.DAY_OF_MONTH, -daysIntoWeek);
+        long weekStart = WeatherContract.normalizeDate(calendar.getTimeInMillis());
+
+        ContentValues[] days = new ContentValues[7];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, weekStart + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, i);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, i + 10);
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, i % 2 == 0 ? 800 : 500);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        trim();
+
+        assertEquals("Error: Expired days were left in the weather table", 0, countDays());
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithPeriod(
+                        TestUtilities.TEST_LOCATION, ArchiveEntry.PERIOD_WEEK),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(weekStart, getLong(cursor, ArchiveEntry.COLUMN_START_DATE));
+        assertEquals(7, getLong(cursor, ArchiveEntry.COLUMN_DAY_COUNT));
+        assertEquals(0.0, getDouble(cursor, ArchiveEntry.COLUMN_MIN_TEMP));
+        assertEquals(16.0, getDouble(cursor, ArchiveEntry.COLUMN_MAX_TEMP));
+        // The days' midpoints are 5 to 11.
+        assertEquals(8.0, getDouble(cursor, ArchiveEntry.COLUMN_MEAN_TEMP), 1e-9);
+        assertEquals(800, getLong(cursor, ArchiveEntry.COLUMN_WEATHER_ID));
+        assertEquals(4, getLong(cursor, ArchiveEntry.COLUMN_WEATHER_DAYS));
+        cursor.close();
+    }
+
+    public void testYearsOfHistoryStaySmall() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        int pastDays = 3 * 365;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[pastDays];
+        for (int i = 0; i < pastDays; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationId);
+            days[i].put(WeatherEntry.COLUMN_DATE,
+                    today - (i + 1) * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        trim();
+
+        assertEquals(0, countDays());
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        int[] rowsPerPeriod = new int[ArchiveEntry.PERIOD_YEAR + 1];
+        long archivedDays = 0;
+        while (cursor.moveToNext()) {
+            rowsPerPeriod[(int) getLong(cursor, ArchiveEntry.COLUMN_PERIOD)]++;
+            archivedDays += getLong(cursor, ArchiveEntry.COLUMN_DAY_COUNT);
+            assertEquals(65.0, getDouble(cursor, ArchiveEntry.COLUMN_MIN_TEMP));
+            assertEquals(75.0, getDouble(cursor, ArchiveEntry.COLUMN_MAX_TEMP));
+            assertEquals(321, getLong(cursor, ArchiveEntry.COLUMN_WEATHER_ID));
+        }
+        cursor.close();
+
+        assertEquals("Error: Days were lost or counted twice", pastDays, archivedDays);
+        // The week and month tiers may each hold a partial period at their edge.
+        assertTrue(rowsPerPeriod[ArchiveEntry.PERIOD_WEEK] <= WeatherArchive.KEEP_WEEKS + 1);
+        assertTrue(rowsPerPeriod[ArchiveEntry.PERIOD_MONTH] <= WeatherArchive.KEEP_MONTHS + 1);
+        assertTrue("Error: Nothing was folded into years", rowsPerPeriod[ArchiveEntry.PERIOD_YEAR] > 0);
+        assertTrue(rowsPerPeriod[ArchiveEntry.PERIOD_YEAR] <= 3);
+    }
+
+    private void trim() {
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_TRIM_WEATHER, null, null);
+    }
+
+    private int countDays() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[] {Long.toString(mLocationId)},
+                null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndex(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndex(column));
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(ArchiveEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -17,6 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +45,27 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        The bulk insert normalizes dates with plain arithmetic instead of Time.  Check that it
+        lands on the same midnight Time does, in zones with half hour offsets and with DST
+        changes, every few hours over more than a year.  None of these zones change their clocks
+        at midnight, where Time's answer depends on how it resolves the missing hour.
+     */
+    public void testNormalizeDateMatchesTime() {
+        String[] zones = {"UTC", "America/Los_Angeles", "Europe/London", "Asia/Kolkata",
+                "Australia/Lord_Howe", "Pacific/Auckland"};
+        final long step = 137L * 60 * 1000;
+        for (String zone : zones) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            Time time = new Time(zone);
+            for (long date = TEST_WEATHER_DATE * 1000; date < TEST_WEATHER_DATE * 1000
+                    + 400L * 24 * 60 * 60 * 1000; date += step) {
+                time.set(date);
+                long expected = time.setJulianDay(Time.getJulianDay(date, time.gmtoff));
+                assertEquals("Error: " + date + " normalized differently in " + zone,
+                        expected, WeatherContract.normalizeDate(date, timeZone));
+            }
+        }
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that trimming keeps each location's own retention window, gets through more expired
+    rows than fit in one chunk, and only reclaims space once the free list is worth it.
+ */
+public class TestWeatherRetention extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int FUTURE_DAYS = 3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testEachLocationKeepsItsWindow() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long defaultLocation = insertLocation(TestUtilities.TEST_LOCATION, null);
+        long weekLocation = insertLocation("94043", 7);
+        insertDays(defaultLocation, 10);
+        insertDays(weekLocation, 10);
+
+        Bundle result = trim(false);
+
+        int defaultDays = defaultRetentionDays();
+        assertTrue("Error: The default window should keep at least yesterday", defaultDays >= 1);
+        assertEquals(defaultDays + 1 + FUTURE_DAYS, countDays(defaultLocation));
+        assertEquals(7 + 1 + FUTURE_DAYS, countDays(weekLocation));
+        assertEquals((10 - defaultDays) + 3, result.getInt(WeatherContract.RESULT_DELETED_ROWS));
+    }
+
+    public void testDeletesMoreThanOneChunk() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION, null);
+        int pastDays = WeatherRetention.DELETE_CHUNK_ROWS * 2 + 17;
+        insertDays(locationId, pastDays);
+
+        Bundle result = trim(true);
+
+        int defaultDays = defaultRetentionDays();
+        assertEquals(pastDays - defaultDays, result.getInt(WeatherContract.RESULT_DELETED_ROWS));
+        assertEquals(defaultDays + 1 + FUTURE_DAYS, countDays(locationId));
+    }
+
+    public void testShouldReclaim() {
+        assertFalse("Error: A handful of free pages isn't worth a vacuum",
+                WeatherRetention.shouldReclaim(WeatherRetention.MIN_FREE_PAGES - 1, 40));
+        assertFalse("Error: A small share of a big file isn't worth a vacuum",
+                WeatherRetention.shouldReclaim(100, 10000));
+        assertTrue(WeatherRetention.shouldReclaim(100, 500));
+    }
+
+    private Bundle trim(boolean reclaimSpace) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(WeatherContract.EXTRA_RECLAIM_SPACE, reclaimSpace);
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_TRIM_WEATHER, null, extras);
+    }
+
+    private int defaultRetentionDays() {
+        return mContext.getResources().getInteger(R.integer.weather_retention_days);
+    }
+
+    private long insertLocation(String locationSetting, Integer retentionDays) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_RETENTION_DAYS, retentionDays);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    /**
+     * Inserts the given number of days before today, today, and a few days after.
+     */
+    private void insertDays(long locationId, int pastDays) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[pastDays + 1 + FUTURE_DAYS];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            // Midday, so the clocks changing can't move a day across midnight.
+            days[i].put(WeatherEntry.COLUMN_DATE,
+                    today + (i - pastDays) * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    private int countDays(long locationId) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[] {Long.toString(locationId)},
+                null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that weather written through the provider reads back through the view to a tenth,
+    that descriptions are stored once, and that updates and deletes can select on any of the
+    view's columns.  Then compares the stored rows with the REAL and TEXT columns they replaced:
+    file size, bytes per row and the pages a forecast reads, logged under the TestWeatherStorage
+    tag.
+ */
+public class TestWeatherStorage extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherStorage.class.getSimpleName();
+
+    private static final String REAL_DATABASE = "weather-real.db";
+    private static final String FIXED_DATABASE = "weather-fixed.db";
+
+    // The weather table as it was before the view, for comparison.
+    private static final String SQL_CREATE_REAL_TABLE = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+            + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, max REAL NOT NULL, "
+            + "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+    private static final String SQL_CREATE_REAL_INDEX =
+            "CREATE INDEX weather_location_date ON weather (location_id, date);";
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Drizzle", "Snow"};
+
+    private static final int NUM_DAYS = 14;
+    private static final int NUM_LOCATIONS = 20;
+    private static final int HISTORY_DAYS = 90;
+    private static final int READ_REPEATS = 50;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private ContentResolver mResolver;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        mContext.deleteDatabase(REAL_DATABASE);
+        mContext.deleteDatabase(FIXED_DATABASE);
+        mLocationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mContext.deleteDatabase(REAL_DATABASE);
+        mContext.deleteDatabase(FIXED_DATABASE);
+        super.tearDown();
+    }
+
+    public void testValuesReadBackToATenth() {
+        ContentValues values = createDay(mLocationId, 0);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -3.26);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1013.25);
+        Uri uri = mResolver.insert(WeatherEntry.CONTENT_URI, values);
+
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry._ID + " = ?", new String[] {Long.toString(ContentUris.parseId(uri))},
+                null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(-3.3, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals(1013.3, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)));
+        assertEquals(values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+    }
+
+    public void testDescriptionsAreStoredOnce() {
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days[i] = createDay(mLocationId, i);
+        }
+        assertEquals(NUM_DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, days));
+
+        // Other tests' descriptions may be there too; the table is never trimmed.
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(DESCRIPTIONS.length, DatabaseUtils.queryNumEntries(db,
+                WeatherStorage.DESCRIPTION_TABLE_NAME,
+                WeatherStorage.COLUMN_DESCRIPTION + " IN (?, ?, ?, ?, ?)", DESCRIPTIONS));
+        assertEquals(DESCRIPTIONS.length, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(DISTINCT " + WeatherStorage.COLUMN_DESC_KEY + ") FROM "
+                        + WeatherStorage.TABLE_NAME, null));
+        helper.close();
+    }
+
+    public void testUpdateAndDeleteSelectOnViewColumns() {
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days[i] = createDay(mLocationId, i);
+        }
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_SHORT_DESC, "Fog");
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 12.34);
+        int updated = mResolver.update(WeatherEntry.CONTENT_URI, update,
+                WeatherEntry.COLUMN_SHORT_DESC + " = ?", new String[] {DESCRIPTIONS[0]});
+        assertEquals(countDays(WeatherEntry.COLUMN_SHORT_DESC + " = 'Fog'"), updated);
+        assertEquals(updated, countDays(WeatherEntry.COLUMN_MAX_TEMP + " = 12.3"));
+
+        int deleted = mResolver.delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_SHORT_DESC + " = ?", new String[] {"Fog"});
+        assertEquals(updated, deleted);
+        assertEquals(NUM_DAYS - deleted, countDays(null));
+    }
+
+    public void testSizeAndPageReads() {
+        SQLiteDatabase real = mContext.openOrCreateDatabase(REAL_DATABASE, 0, null);
+        SQLiteDatabase fixed = mContext.openOrCreateDatabase(FIXED_DATABASE, 0, null);
+        try {
+            real.execSQL(SQL_CREATE_REAL_TABLE);
+            real.execSQL(SQL_CREATE_REAL_INDEX);
+            fixed.execSQL(WeatherDbHelper.SQL_CREATE_DESCRIPTION_TABLE);
+            fixed.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_ROWS_TABLE);
+            fixed.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+            fixed.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_VIEW);
+
+            fill(real, false);
+            fill(fixed, true);
+            // Packs both files, so the comparison isn't down to free pages.
+            real.execSQL("VACUUM");
+            fixed.execSQL("VACUUM");
+
+            long realReadNanos = timeForecast(real);
+            long fixedReadNanos = timeForecast(fixed);
+
+            int rows = NUM_LOCATIONS * HISTORY_DAYS;
+            long pageSize = DatabaseUtils.longForQuery(real, "PRAGMA page_size", null);
+            long realBytes = DatabaseUtils.longForQuery(real, "PRAGMA page_count", null) * pageSize;
+            long fixedBytes = DatabaseUtils.longForQuery(fixed, "PRAGMA page_count", null)
+                    * pageSize;
+            assertTrue("Error: The fixed-point rows take more space than REAL columns",
+                    fixedBytes < realBytes);
+
+            // A location's days are inserted together, so they sit next to each other in row ID
+            // order and a forecast reads the table pages its rows fill, plus the index.
+            Log.i(LOG_TAG, String.format("%d locations x %d days: "
+                            + "REAL columns %d KB, %d bytes a row, ~%d table pages a forecast, "
+                            + "%.3f ms a forecast; "
+                            + "fixed-point %d KB, %d bytes a row, ~%d table pages a forecast, "
+                            + "%.3f ms a forecast",
+                    NUM_LOCATIONS, HISTORY_DAYS,
+                    realBytes / 1024, realBytes / rows,
+                    pagesForForecast(realBytes, rows, pageSize), realReadNanos / 1e6,
+                    fixedBytes / 1024, fixedBytes / rows,
+                    pagesForForecast(fixedBytes, rows, pageSize), fixedReadNanos / 1e6));
+        } finally {
+            real.close();
+            fixed.close();
+        }
+    }
+
+    private static long pagesForForecast(long bytes, int rows, long pageSize) {
+        return (NUM_DAYS * bytes / rows + pageSize - 1) / pageSize;
+    }
+
+    private void fill(SQLiteDatabase db, boolean fixed) {
+        db.beginTransaction();
+        WeatherInserter inserter = fixed ? new WeatherInserter(db) : null;
+        try {
+            for (long locationId = 1; locationId <= NUM_LOCATIONS; locationId++) {
+                for (int day = 0; day < HISTORY_DAYS; day++) {
+                    ContentValues values = createDay(locationId, day);
+                    if (fixed) {
+                        inserter.insert(values);
+                    } else {
+                        db.insert(WeatherEntry.TABLE_NAME, null, values);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (inserter != null) {
+                inserter.close();
+            }
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the mean nanoseconds to read one location's forecast, every column.
+     */
+    private static long timeForecast(SQLiteDatabase db) {
+        String[] args = {"1",
+                Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))};
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < READ_REPEATS; i++) {
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                    args, null, null, WeatherEntry.COLUMN_DATE + " ASC",
+                    Integer.toString(NUM_DAYS));
+            while (cursor.moveToNext()) {
+                sum += cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC));
+            }
+            cursor.close();
+        }
+        assertTrue(sum != 0);
+        return (System.nanoTime() - start) / READ_REPEATS;
+    }
+
+    /**
+     * @return a day of weather with values that vary like real ones, to two decimal places.
+     */
+    private static ContentValues createDay(long locationId, int day) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + day * DAY_IN_MILLIS));
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[day % DESCRIPTIONS.length]);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 4.17 + (day % 11) * 0.73);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 12.41 + (day % 13) * 0.91);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 40 + (day % 50));
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1002.85 + (day % 17) * 1.09);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 1.55 + (day % 7) * 0.62);
+        values.put(WeatherEntry.COLUMN_DEGREES, (day * 37.5) % 360);
+        return values;
+    }
+
+    private int countDays(String selection) {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, selection, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP server on the loopback interface that answers forecast/daily requests the way
+    OpenWeatherMap does, so the sync can be exercised and timed without a network.
+
+    Point an OwmWeatherSource at getBaseUrl().  Responses are either the recorded Mountain View
+    fixture or a synthetic forecast seeded by the requested location, optionally delayed and
+    optionally replaced by a 500 at the configured rate.
+ */
+public class FakeWeatherServer {
+
+    public static final String LOG_TAG = FakeWeatherServer.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Random mRandom;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+
+    private volatile boolean mRecorded = true;
+    private volatile long mLatencyMillis;
+    private volatile double mErrorRate;
+
+    public FakeWeatherServer(long seed) throws IOException {
+        mRandom = new Random(seed);
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + FORECAST_PATH + "?";
+    }
+
+    // Serve the recorded fixture (true) or a synthetic forecast per location (false).
+    public void setRecorded(boolean recorded) {
+        mRecorded = recorded;
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    // Fraction of requests, from 0 to 1, answered with a 500.
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error closing server socket", e);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // Closed by shutdown.
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            boolean gzip = false;
+            String header;
+            while ((header = in.readLine()) != null && header.length() > 0) {
+                String lower = header.toLowerCase(Locale.US);
+                if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+                    gzip = true;
+                }
+            }
+            mRequestCount.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            boolean fail;
+            synchronized (mRandom) {
+                fail = mRandom.nextDouble() < mErrorRate;
+            }
+            if (fail) {
+                mErrorCount.incrementAndGet();
+                writeResponse(out, "500 Internal Server Error", "text/plain",
+                        "Internal error".getBytes("UTF-8"), false);
+                return;
+            }
+
+            String[] parts = requestLine.split(" ");
+            Uri uri = Uri.parse("http://127.0.0.1" + (parts.length > 1 ? parts[1] : "/"));
+            byte[] body = forecastFor(uri).getBytes("UTF-8");
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+                gzipOut.write(body);
+                gzipOut.close();
+                body = compressed.toByteArray();
+            }
+            writeResponse(out, "200 OK", "application/json; charset=utf-8", body, gzip);
+        } catch (IOException | InterruptedException e) {
+            Log.w(LOG_TAG, "Error serving request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private String forecastFor(Uri uri) {
+        if (mRecorded) {
+            return OwmFixtures.MOUNTAIN_VIEW_14_DAYS;
+        }
+        String query = uri.getQueryParameter("q");
+        String location = query != null ? query
+                : uri.getQueryParameter("lat") + "," + uri.getQueryParameter("lon");
+        String count = uri.getQueryParameter("cnt");
+        int numDays = count != null ? Integer.parseInt(count) : SunshineSyncAdapter.NUM_DAYS;
+        // The same location always gets the same forecast.
+        return OwmFixtures.syntheticForecast("City " + location, numDays, location.hashCode());
+    }
+
+    private static void writeResponse(OutputStream out, String status, String contentType,
+                                      byte[] body, boolean gzip) throws IOException {
+        StringBuilder headers = new StringBuilder()
+                .append("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n")
+                .append("Connection: close\r\n");
+        if (gzip) {
+            headers.append("Content-Encoding: gzip\r\n");
+        }
+        headers.append("\r\n");
+        out.write(headers.toString().getBytes("US-ASCII"));
+        out.write(body);
+        out.flush();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Recorded and synthetic OpenWeatherMap daily forecast responses for the sync tests and
+    benchmarks, so none of them need the network.
+ */
+public class OwmFixtures {
+
+    // 14 day forecast for Mountain View, as recorded from forecast/daily?mode=json&cnt=14
+    static final String MOUNTAIN_VIEW_14_DAYS =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},\"country\":\"US\",\"population\":0},"
+            + "\"cod\":\"200\",\"message\":0.0106,\"cnt\":14,\"list\":["
+            + "{\"dt\":1461182400,\"temp\":{\"day\":17.85,\"min\":8.52,\"max\":17.85,\"night\":9.72,\"eve\":15.75,\"morn\":11.52},\"pressure\":1006.97,\"humidity\":45,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":0.87,\"deg\":205,\"clouds\":70},"
+            + "{\"dt\":1461268800,\"temp\":{\"day\":20.59,\"min\":11.0,\"max\":20.59,\"night\":12.2,\"eve\":18.49,\"morn\":14.0},\"pressure\":1000.55,\"humidity\":74,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":2.48,\"deg\":88,\"clouds\":13,\"rain\":1.72},"
+            + "{\"dt\":1461355200,\"temp\":{\"day\":20.98,\"min\":11.14,\"max\":20.98,\"night\":12.34,\"eve\":18.88,\"morn\":14.14},\"pressure\":1015.01,\"humidity\":52,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.41,\"deg\":148,\"clouds\":80},"
+            + "{\"dt\":1461441600,\"temp\":{\"day\":16.07,\"min\":7.43,\"max\":16.07,\"night\":8.63,\"eve\":13.97,\"morn\":10.43},\"pressure\":1011.79,\"humidity\":72,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":1.87,\"deg\":126,\"clouds\":60,\"rain\":1.82},"
+            + "{\"dt\":1461528000,\"temp\":{\"day\":16.24,\"min\":11.2,\"max\":16.24,\"night\":12.4,\"eve\":14.14,\"morn\":14.2},\"pressure\":1002.3,\"humidity\":85,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":5.35,\"deg\":260,\"clouds\":24,\"rain\":2.6},"
+            + "{\"dt\":1461614400,\"temp\":{\"day\":16.15,\"min\":8.44,\"max\":16.15,\"night\":9.64,\"eve\":14.05,\"morn\":11.44},\"pressure\":1000.83,\"humidity\":56,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":4.97,\"deg\":22,\"clouds\":10,\"rain\":0.47},"
+            + "{\"dt\":1461700800,\"temp\":{\"day\":18.48,\"min\":9.59,\"max\":18.48,\"night\":10.79,\"eve\":16.38,\"morn\":12.59},\"pressure\":1012.52,\"humidity\":49,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":5.99,\"deg\":100,\"clouds\":8,\"rain\":2.59},"
+            + "{\"dt\":1461787200,\"temp\":{\"day\":17.83,\"min\":10.18,\"max\":17.83,\"night\":11.38,\"eve\":15.73,\"morn\":13.18},\"pressure\":999.59,\"humidity\":67,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":4.61,\"deg\":164,\"clouds\":81},"
+            + "{\"dt\":1461873600,\"temp\":{\"day\":14.93,\"min\":7.99,\"max\":14.93,\"night\":9.19,\"eve\":12.83,\"morn\":10.99},\"pressure\":1015.99,\"humidity\":85,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":1.76,\"deg\":298,\"clouds\":78,\"rain\":5.2},"
+            + "{\"dt\":1461960000,\"temp\":{\"day\":14.73,\"min\":8.66,\"max\":14.73,\"night\":9.86,\"eve\":12.63,\"morn\":11.66},\"pressure\":1006.48,\"humidity\":42,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":2.46,\"deg\":42,\"clouds\":36},"
+            + "{\"dt\":1462046400,\"temp\":{\"day\":13.82,\"min\":7.09,\"max\":13.82,\"night\":8.29,\"eve\":11.72,\"morn\":10.09},\"pressure\":1019.15,\"humidity\":89,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":4.09,\"deg\":317,\"clouds\":87,\"rain\":4.94},"
+            + "{\"dt\":1462132800,\"temp\":{\"day\":20.45,\"min\":10.09,\"max\":20.45,\"night\":11.29,\"eve\":18.35,\"morn\":13.09},\"pressure\":1002.3,\"humidity\":56,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":2.6,\"deg\":81,\"clouds\":42,\"rain\":3.52},"
+            + "{\"dt\":1462219200,\"temp\":{\"day\":13.24,\"min\":7.22,\"max\":13.24,\"night\":8.42,\"eve\":11.14,\"morn\":10.22},\"pressure\":1014.59,\"humidity\":63,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":5.98,\"deg\":292,\"clouds\":12,\"rain\":2.75},"
+            + "{\"dt\":1462305600,\"temp\":{\"day\":15.37,\"min\":9.12,\"max\":15.37,\"night\":10.32,\"eve\":13.27,\"morn\":12.12},\"pressure\":996.48,\"humidity\":43,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":4.55,\"deg\":304,\"clouds\":86}"
+            + "]}";
+
+    // What OWM sends back when it doesn't know the location
+    static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    // Truncated half way through the list
+    static final String MALFORMED =
+            MOUNTAIN_VIEW_14_DAYS.substring(0, MOUNTAIN_VIEW_14_DAYS.length() / 2);
+
+    private static final int[] WEATHER_IDS = {800, 801, 803, 500, 501, 600, 211, 741};
+    private static final String[] WEATHER_MAINS =
+            {"Clear", "Clouds", "Clouds", "Rain", "Rain", "Snow", "Thunderstorm", "Fog"};
+
+    /*
+        Builds a response in the same shape as the recorded one, with the given number of days
+        and values drawn from the seed.  Equal seeds give equal payloads.
+     */
+    static String syntheticForecast(String cityName, int numDays, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(256 + numDays * 300);
+        json.append("{\"city\":{\"id\":").append(random.nextInt(9000000))
+                .append(",\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":")
+                .append(String.format(Locale.US, "%.4f", random.nextDouble() * 360 - 180))
+                .append(",\"lat\":")
+                .append(String.format(Locale.US, "%.4f", random.nextDouble() * 180 - 90))
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0106,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        long dt = 1461182400L;
+        for (int i = 0; i < numDays; i++) {
+            int w = random.nextInt(WEATHER_IDS.length);
+            double min = random.nextDouble() * 20 - 5;
+            double max = min + random.nextDouble() * 12;
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(fmt(max))
+                    .append(",\"min\":").append(fmt(min))
+                    .append(",\"max\":").append(fmt(max))
+                    .append(",\"night\":").append(fmt(min + 1))
+                    .append(",\"eve\":").append(fmt(max - 2))
+                    .append(",\"morn\":").append(fmt(min + 3))
+                    .append("},\"pressure\":").append(fmt(990 + random.nextDouble() * 40))
+                    .append(",\"humidity\":").append(30 + random.nextInt(70))
+                    .append(",\"weather\":[{\"id\":").append(WEATHER_IDS[w])
+                    .append(",\"main\":\"").append(WEATHER_MAINS[w])
+                    .append("\",\"description\":\"").append(WEATHER_MAINS[w].toLowerCase(Locale.US))
+                    .append("\",\"icon\":\"01d\"}],\"speed\":").append(fmt(random.nextDouble() * 8))
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100))
+                    .append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static String fmt(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+}
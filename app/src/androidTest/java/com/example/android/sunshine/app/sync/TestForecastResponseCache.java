@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test-forecast-responses");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testCommittedEntryRoundTrips() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 64 * 1024);
+        store(cache, "q=94043", OwmFixtures.MOUNTAIN_VIEW_14_DAYS, "\"abc\"", 1000L);
+
+        ForecastResponseCache.Entry entry = cache.get("q=94043");
+        assertNotNull("Error: Committed entry not found", entry);
+        assertEquals("\"abc\"", entry.etag);
+        assertNull(entry.lastModified);
+        assertEquals(1000L, entry.fetchedAt);
+        assertEquals(OwmFixtures.MOUNTAIN_VIEW_14_DAYS, readBody(cache, "q=94043"));
+    }
+
+    public void testPutReplacesPreviousEntry() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 64 * 1024);
+        store(cache, "q=94043", OwmFixtures.MOUNTAIN_VIEW_14_DAYS, "\"abc\"", 1000L);
+        store(cache, "q=94043", OwmFixtures.NOT_FOUND, "\"def\"", 2000L);
+
+        ForecastResponseCache.Entry entry = cache.get("q=94043");
+        assertEquals("\"def\"", entry.etag);
+        assertEquals(2000L, entry.fetchedAt);
+        assertEquals(OwmFixtures.NOT_FOUND, readBody(cache, "q=94043"));
+    }
+
+    public void testPreparedEntryIsOnlyStoredOnCommit() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 64 * 1024);
+        byte[] buffer = OwmFixtures.MOUNTAIN_VIEW_14_DAYS.getBytes("UTF-8");
+        ForecastResponseCache.Pending pending = cache.prepare("q=94043", "\"abc\"", null, 1000L,
+                buffer, buffer.length);
+        assertNull("Error: Validators saved before the forecast was stored",
+                cache.get("q=94043"));
+
+        // The sync reuses its buffer for the next location before committing.
+        buffer[0] = 'x';
+        pending.commit();
+        assertEquals("\"abc\"", cache.get("q=94043").etag);
+        assertEquals(OwmFixtures.MOUNTAIN_VIEW_14_DAYS, readBody(cache, "q=94043"));
+    }
+
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        String body = OwmFixtures.MOUNTAIN_VIEW_14_DAYS;
+        // Room for two entries, but not three.
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory,
+                body.length() * 2 + 256);
+
+        store(cache, "first", body, null, 1L);
+        Thread.sleep(1100);
+        store(cache, "second", body, null, 2L);
+        Thread.sleep(1100);
+        // Using the first entry makes the second one the oldest.
+        readBody(cache, "first");
+        Thread.sleep(1100);
+        store(cache, "third", body, null, 3L);
+
+        assertNotNull(cache.get("first"));
+        assertNull("Error: Least recently used entry was not evicted", cache.get("second"));
+        assertNotNull(cache.get("third"));
+    }
+
+    private static void store(ForecastResponseCache cache, String key, String body, String etag,
+                              long fetchedAt) throws Exception {
+        // Pass a buffer with slack at the end, the way the sync hands over its body buffer.
+        byte[] bytes = body.getBytes("UTF-8");
+        byte[] buffer = new byte[bytes.length + 100];
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        cache.put(key, etag, null, fetchedAt, buffer, bytes.length);
+    }
+
+    private static String readBody(ForecastResponseCache cache, String key) throws Exception {
+        InputStream in = cache.openBody(key);
+        assertNotNull("Error: No body cached for " + key, in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the streaming parser reads the same values as the original JSONObject tree
+    parser, and compares the two on the recorded fixtures.
+ */
+public class TestOwmForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestOwmForecastParser.class.getSimpleName();
+
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int BENCHMARK_ROUNDS = 500;
+
+    /*
+        Remembers everything the parser hands out, copying each Day since the parser reuses it.
+     */
+    static class RecordingHandler implements OwmForecastParser.Handler {
+        String cityName;
+        double lat;
+        double lon;
+        final List<String> days = new ArrayList<String>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(OwmForecastParser.Day day) {
+            days.add(day.index + "|" + day.weatherId + "|" + day.description + "|" + day.high
+                    + "|" + day.low + "|" + day.pressure + "|" + day.humidity + "|"
+                    + day.windSpeed + "|" + day.windDirection);
+        }
+    }
+
+    /*
+        Handler that does nothing, so the benchmark only measures the parsers.
+     */
+    static final OwmForecastParser.Handler NO_OP_HANDLER = new OwmForecastParser.Handler() {
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(OwmForecastParser.Day day) {
+        }
+    };
+
+    public void testStreamingMatchesTree() throws Exception {
+        RecordingHandler streamed = new RecordingHandler();
+        RecordingHandler tree = new RecordingHandler();
+
+        assertEquals(HttpURLConnection.HTTP_OK,
+                OwmForecastParser.parseStreaming(stream(OwmFixtures.MOUNTAIN_VIEW_14_DAYS), streamed));
+        assertEquals(HttpURLConnection.HTTP_OK,
+                OwmForecastParser.parseTree(OwmFixtures.MOUNTAIN_VIEW_14_DAYS, tree));
+
+        assertEquals("Mountain View", streamed.cityName);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(tree.lat, streamed.lat);
+        assertEquals(tree.lon, streamed.lon);
+        assertEquals(14, streamed.days.size());
+        assertEquals(tree.days, streamed.days);
+    }
+
+    public void testStreamingMatchesTreeOnSyntheticForecast() throws Exception {
+        String json = OwmFixtures.syntheticForecast("Synthetic City", 16, 42L);
+        RecordingHandler streamed = new RecordingHandler();
+        RecordingHandler tree = new RecordingHandler();
+
+        OwmForecastParser.parseStreaming(stream(json), streamed);
+        OwmForecastParser.parseTree(json, tree);
+
+        assertEquals(16, streamed.days.size());
+        assertEquals(tree.days, streamed.days);
+    }
+
+    public void testErrorCode() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                OwmForecastParser.parseStreaming(stream(OwmFixtures.NOT_FOUND), handler));
+        assertTrue("Error: An error response shouldn't produce any days", handler.days.isEmpty());
+    }
+
+    public void testMalformedJsonIsReportedAsJsonException() throws Exception {
+        try {
+            OwmForecastParser.parseStreaming(stream("{\"cod\":\"200\",\"list\":[{]}"),
+                    new RecordingHandler());
+            fail("Error: Malformed JSON should throw a JSONException");
+        } catch (JSONException expected) {
+        }
+    }
+
+    /*
+        Not a pass/fail test; logs parse time and bytes allocated per response for each parser.
+        Read the numbers from logcat with the TestOwmForecastParser tag.
+     */
+    public void testBenchmarkParsers() throws Exception {
+        String[] fixtures = {
+                OwmFixtures.MOUNTAIN_VIEW_14_DAYS,
+                OwmFixtures.syntheticForecast("Synthetic City", 16, 7L)
+        };
+        for (String json : fixtures) {
+            byte[] bytes = json.getBytes("UTF-8");
+
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                runTree(bytes);
+                runStreaming(bytes);
+            }
+
+            long[] tree = measure(bytes, false);
+            long[] streaming = measure(bytes, true);
+
+            Log.i(LOG_TAG, String.format("%d byte payload: tree %d us / %d bytes, "
+                            + "streaming %d us / %d bytes per parse",
+                    bytes.length, tree[0] / 1000, tree[1], streaming[0] / 1000, streaming[1]));
+        }
+    }
+
+    // Returns {nanos per parse, bytes allocated per parse}
+    @SuppressWarnings("deprecation")
+    private static long[] measure(byte[] bytes, boolean streaming) throws Exception {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            if (streaming) {
+                runStreaming(bytes);
+            } else {
+                runTree(bytes);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{elapsed / BENCHMARK_ROUNDS,
+                Debug.getThreadAllocSize() / BENCHMARK_ROUNDS};
+    }
+
+    // The tree parser always started from a String that had been built from the stream.
+    private static void runTree(byte[] bytes) throws Exception {
+        OwmForecastParser.parseTree(new String(bytes, "UTF-8"), NO_OP_HANDLER);
+    }
+
+    private static void runStreaming(byte[] bytes) throws Exception {
+        OwmForecastParser.parseStreaming(new ByteArrayInputStream(bytes), NO_OP_HANDLER);
+    }
+
+    private static ByteArrayInputStream stream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncCoalescer.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncCoalescer.reset();
+        super.tearDown();
+    }
+
+    public void testRepeatedRequestsCoalesce() {
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043"));
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("94043"));
+
+        // Still covered once the sync is running...
+        SyncCoalescer.Sync sync = SyncCoalescer.begin("94043", null);
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("94043"));
+        assertFalse(sync.isCancelled());
+
+        // ...but not after it has finished.
+        SyncCoalescer.finish(sync);
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043"));
+    }
+
+    public void testNewerLocationSupersedesRunningSync() {
+        SyncCoalescer.request("94043");
+        SyncCoalescer.Sync sync = SyncCoalescer.begin("94043", null);
+
+        assertEquals(SyncCoalescer.REQUEST_SUPERSEDES, SyncCoalescer.request("10001"));
+        assertTrue("Error: The obsolete sync wasn't cancelled", sync.isCancelled());
+        // The replacement is pending now, so asking again changes nothing.
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("10001"));
+        // Going back to the running location needs a new request, since 10001 would win.
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043"));
+    }
+
+    public void testPendingLocationIsReplaced() {
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043"));
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("10001"));
+
+        // A sync that starts for the latest location clears it.
+        SyncCoalescer.finish(SyncCoalescer.begin("10001", null));
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("10001"));
+    }
+
+    public void testOnlyObsoleteSyncsAreCancelled() {
+        final int[] aborted = new int[2];
+        SyncCoalescer.Sync first = SyncCoalescer.begin("94043", new Runnable() {
+            @Override
+            public void run() {
+                aborted[0]++;
+            }
+        });
+        SyncCoalescer.Sync second = SyncCoalescer.begin("10001", new Runnable() {
+            @Override
+            public void run() {
+                aborted[1]++;
+            }
+        });
+
+        // The sync for 10001 covers the request; the one for 94043 is obsolete either way.
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("10001"));
+        assertTrue(first.isCancelled());
+        assertEquals(1, aborted[0]);
+        assertFalse("Error: A sync for the requested location was cancelled", second.isCancelled());
+        assertEquals(0, aborted[1]);
+    }
+
+    public void testRequestThatNeverStartsExpires() {
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043", 1000));
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("94043",
+                1000 + SyncCoalescer.PENDING_TIMEOUT_MILLIS));
+
+        // The sync was dropped before it began, so after a while the location is asked for again.
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043",
+                1000 + SyncCoalescer.PENDING_TIMEOUT_MILLIS + 1));
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("94043",
+                1000 + SyncCoalescer.PENDING_TIMEOUT_MILLIS + 2));
+    }
+
+    public void testAbandonedRequestIsForgotten() {
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043"));
+        SyncCoalescer.abandon("94043");
+        assertEquals(SyncCoalescer.REQUEST_NEW, SyncCoalescer.request("94043"));
+
+        // Abandoning a location that is no longer pending leaves the pending one alone.
+        SyncCoalescer.abandon("10001");
+        assertEquals(SyncCoalescer.REQUEST_COALESCED, SyncCoalescer.request("94043"));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestSyncRetryPolicy extends AndroidTestCase {
+
+    private static final SyncLocation LOCATION = new SyncLocation("94043", true);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearFailureCount();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearFailureCount();
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsAndIsCapped() {
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(1));
+        for (int attempt = 1; attempt <= 20; attempt++) {
+            long expected = Math.min(SyncRetryPolicy.MAX_DELAY_SECONDS,
+                    SyncRetryPolicy.BASE_DELAY_SECONDS << Math.min(attempt - 1, 30));
+            long delay = policy.backoffSeconds(attempt);
+            assertTrue("Error: Backoff below half the exponential delay on attempt " + attempt,
+                    delay >= expected / 2);
+            assertTrue("Error: Backoff above the exponential delay on attempt " + attempt,
+                    delay <= expected);
+        }
+    }
+
+    public void testFailuresAreCountedByKind() {
+        SyncResult syncResult = new SyncResult();
+        new SyncRetryPolicy(new Random(1)).apply(mContext, Arrays.asList(
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_NETWORK),
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_SERVER),
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_MALFORMED),
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_NOT_FOUND)), syncResult);
+
+        assertEquals(2, syncResult.stats.numIoExceptions);
+        assertEquals(1, syncResult.stats.numParseExceptions);
+        assertEquals(1, syncResult.stats.numSkippedEntries);
+        assertTrue("Error: A retryable failure should delay the next sync",
+                syncResult.delayUntil > System.currentTimeMillis() / 1000);
+    }
+
+    public void testNotFoundDoesNotBackOff() {
+        SyncResult syncResult = new SyncResult();
+        new SyncRetryPolicy(new Random(1)).apply(mContext, Arrays.asList(
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_NOT_FOUND)), syncResult);
+
+        assertEquals(0, syncResult.delayUntil);
+        assertFalse(syncResult.hasSoftError());
+    }
+
+    public void testSuccessResetsFailureCount() {
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(1));
+        policy.apply(mContext, Arrays.asList(
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_NETWORK)), new SyncResult());
+        policy.apply(mContext, Arrays.asList(
+                FetchResult.failed(LOCATION, SyncRetryPolicy.FAILURE_NETWORK)), new SyncResult());
+        assertEquals(2, getFailureCount());
+
+        SyncResult syncResult = new SyncResult();
+        policy.apply(mContext, Arrays.asList(
+                FetchResult.succeeded(LOCATION, null, 0)), syncResult);
+        assertEquals(0, getFailureCount());
+        assertEquals(0, syncResult.delayUntil);
+    }
+
+    private int getFailureCount() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getInt(mContext.getString(R.string.pref_sync_failure_count), 0);
+    }
+
+    private void clearFailureCount() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_sync_failure_count)).commit();
+    }
+}
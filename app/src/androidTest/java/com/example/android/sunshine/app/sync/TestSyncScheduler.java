@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    public void testUnchangedSyncsLengthenTheInterval() {
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS, SyncScheduler.baseIntervalSeconds(0, false));
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS, SyncScheduler.baseIntervalSeconds(1, false));
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS * 2, SyncScheduler.baseIntervalSeconds(2, false));
+
+        int previous = 0;
+        for (int streak = 0; streak < 40; streak++) {
+            int interval = SyncScheduler.baseIntervalSeconds(streak, false);
+            assertTrue("Error: Interval shrank at streak " + streak, interval >= previous);
+            assertTrue("Error: Interval above the cap at streak " + streak,
+                    interval <= SyncScheduler.MAX_INTERVAL_SECONDS);
+            previous = interval;
+        }
+        assertEquals(SyncScheduler.MAX_INTERVAL_SECONDS, previous);
+    }
+
+    public void testVolatileForecastUsesShortestInterval() {
+        assertEquals(SyncScheduler.MIN_INTERVAL_SECONDS, SyncScheduler.baseIntervalSeconds(0, true));
+        assertEquals(SyncScheduler.MIN_INTERVAL_SECONDS, SyncScheduler.baseIntervalSeconds(10, true));
+    }
+
+    public void testDeviceStateAdjustsTheInterval() {
+        int base = SyncScheduler.BASE_INTERVAL_SECONDS;
+        assertEquals(base / 2, SyncScheduler.adjustForDevice(base, true, true));
+        assertEquals(base, SyncScheduler.adjustForDevice(base, true, false));
+        assertEquals(base, SyncScheduler.adjustForDevice(base, false, true));
+        assertEquals(base * 2, SyncScheduler.adjustForDevice(base, false, false));
+
+        // ...but never past the limits.
+        assertEquals(SyncScheduler.MIN_INTERVAL_SECONDS, SyncScheduler.adjustForDevice(
+                SyncScheduler.MIN_INTERVAL_SECONDS, true, true));
+        assertEquals(SyncScheduler.MAX_INTERVAL_SECONDS, SyncScheduler.adjustForDevice(
+                SyncScheduler.MAX_INTERVAL_SECONDS, false, false));
+    }
+}
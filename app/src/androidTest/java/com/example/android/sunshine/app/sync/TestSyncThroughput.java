@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+
+/*
+    Runs the whole sync, fetch to database, against FakeWeatherServer.  The benchmarks log
+    their numbers under the TestSyncThroughput tag rather than asserting on them.
+ */
+public class TestSyncThroughput extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncThroughput.class.getSimpleName();
+
+    private static final int BENCHMARK_SYNCS = 20;
+    private static final int EXTRA_LOCATIONS = 9;
+
+    private FakeWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mServer = new FakeWeatherServer(42L);
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false,
+                new OwmWeatherSource(mContext, mServer.getBaseUrl()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_sync_all_locations_key))
+                .remove(mContext.getString(R.string.pref_sync_failure_count))
+                .remove(mContext.getString(R.string.pref_sync_unchanged_streak))
+                .commit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncStoresRecordedForecast() {
+        SyncResult syncResult = sync();
+
+        assertFalse("Error: Sync against the fake server failed", syncResult.hasError());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals("Error: Expected the whole recorded forecast in the database",
+                SunshineSyncAdapter.NUM_DAYS, countForecastRows(Utility.getPreferredLocation(mContext)));
+    }
+
+    public void testUnchangedForecastWritesNothing() {
+        SyncResult first = sync();
+        assertEquals(SunshineSyncAdapter.NUM_DAYS, first.stats.numInserts);
+
+        SyncResult second = sync();
+        assertEquals("Error: An identical forecast should not be inserted again",
+                0, second.stats.numInserts);
+        assertEquals("Error: An identical forecast should not be updated",
+                0, second.stats.numUpdates);
+    }
+
+    public void testUnchangedForecastAtFinerPrecisionWritesNothing() {
+        // Hundredths throughout, where the database keeps tenths.
+        mServer.setRecorded(false);
+        SyncResult first = sync();
+        assertEquals(SunshineSyncAdapter.NUM_DAYS, first.stats.numInserts);
+
+        SyncResult second = sync();
+        assertEquals(0, second.stats.numInserts);
+        assertEquals("Error: Values beyond the stored precision should not count as changes",
+                0, second.stats.numUpdates);
+    }
+
+    public void testChangedDayIsUpdatedInPlace() {
+        sync();
+
+        // Pretend today's high was stored differently; the next sync has to put it back.
+        String locationSetting = Utility.getPreferredLocation(mContext);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[] {WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        long rowId = cursor.getLong(0);
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, -100.0);
+        String selection = WeatherContract.WeatherEntry._ID + " = ?";
+        String[] selectionArgs = new String[] {Long.toString(rowId)};
+        mContext.getContentResolver().update(WeatherContract.WeatherEntry.CONTENT_URI,
+                values, selection, selectionArgs);
+
+        SyncResult syncResult = sync();
+        assertEquals(0, syncResult.stats.numInserts);
+        assertEquals(1, syncResult.stats.numUpdates);
+
+        cursor = mContext.getContentResolver().query(WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[] {WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                selection, selectionArgs, null);
+        assertTrue("Error: The updated day should keep its _ID", cursor.moveToFirst());
+        assertTrue(cursor.getDouble(0) != -100.0);
+        cursor.close();
+    }
+
+    public void testAppendedDayDoesNotCountAsChange() {
+        sync();
+
+        // Drop the last day, as if the forecast window had moved on by one since.
+        String locationSetting = Utility.getPreferredLocation(mContext);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[] {WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " DESC");
+        assertTrue(cursor.moveToFirst());
+        long rowId = cursor.getLong(0);
+        cursor.close();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry._ID + " = ?", new String[] {Long.toString(rowId)});
+
+        SyncResult syncResult = sync();
+        assertEquals(1, syncResult.stats.numInserts);
+        assertEquals("Error: Appending the far day should extend the unchanged streak",
+                1, PreferenceManager.getDefaultSharedPreferences(mContext).getInt(
+                        mContext.getString(R.string.pref_sync_unchanged_streak), 0));
+    }
+
+    public void testStagesAreTimed() {
+        sync();
+
+        SyncPipelineStats stats = SunshineSyncAdapter.getLastSyncStats();
+        assertNotNull("Error: The sync didn't leave its stats behind", stats);
+        assertEquals(1, stats.getItemCount(SyncPipelineStats.STAGE_FETCH));
+        assertEquals(1, stats.getItemCount(SyncPipelineStats.STAGE_PREPARE));
+        assertEquals(1, stats.getItemCount(SyncPipelineStats.STAGE_WRITE));
+        assertEquals(1, stats.getItemCount(SyncPipelineStats.STAGE_PUBLISH));
+        assertTrue(stats.getTotalNanos() >= stats.getWallNanos(SyncPipelineStats.STAGE_WRITE));
+    }
+
+    public void testResponseBodiesAreCounted() {
+        sync();
+
+        SyncPipelineStats stats = SunshineSyncAdapter.getLastSyncStats();
+        assertTrue("Error: The sync didn't count the bytes it fetched", stats.getWireBytes() > 0);
+        assertTrue(stats.getDecodedBytes() >= stats.getWireBytes());
+    }
+
+    public void testServerErrorsAreRetried() {
+        mServer.setErrorRate(1.0);
+        SyncResult syncResult = sync();
+
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertTrue("Error: A server error should back off the next sync",
+                syncResult.delayUntil > 0);
+    }
+
+    public void testBenchmarkSingleLocation() {
+        mServer.setRecorded(false);
+        mServer.setLatencyMillis(50);
+        benchmark("1 location, 50ms latency");
+    }
+
+    public void testBenchmarkAllLocations() {
+        ContentValues[] locations = new ContentValues[EXTRA_LOCATIONS];
+        for (int i = 0; i < EXTRA_LOCATIONS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "city-" + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 10.0 + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, 20.0 + i);
+            locations[i] = values;
+            mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, values);
+        }
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_sync_all_locations_key), true)
+                .commit();
+
+        mServer.setRecorded(false);
+        mServer.setLatencyMillis(50);
+        benchmark((EXTRA_LOCATIONS + 1) + " locations, 50ms latency");
+
+        for (ContentValues values : locations) {
+            assertEquals(SunshineSyncAdapter.NUM_DAYS, countForecastRows(
+                    values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)));
+        }
+    }
+
+    public void testBenchmarkWithErrors() {
+        mServer.setRecorded(false);
+        mServer.setLatencyMillis(20);
+        mServer.setErrorRate(0.2);
+        benchmark("1 location, 20ms latency, 20% errors");
+    }
+
+    private void benchmark(String label) {
+        // Warm up the connection pool, class loading and the database.
+        sync();
+
+        long[] latencies = new long[BENCHMARK_SYNCS];
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_SYNCS; i++) {
+            long syncStart = System.nanoTime();
+            sync();
+            latencies[i] = System.nanoTime() - syncStart;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // One more, with allocations counted, for the per-stage breakdown.
+        SyncPipelineStats.setAllocationCounting(true);
+        sync();
+        SyncPipelineStats.setAllocationCounting(false);
+        Log.i(LOG_TAG, label + ": " + SunshineSyncAdapter.getLastSyncStats());
+
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, String.format("%s: %.1f syncs/s, p50 %.1f ms, p95 %.1f ms, max %.1f ms, "
+                        + "%d requests, %d errors",
+                label,
+                BENCHMARK_SYNCS / (elapsed / 1e9),
+                latencies[BENCHMARK_SYNCS / 2] / 1e6,
+                latencies[(int) (BENCHMARK_SYNCS * 0.95)] / 1e6,
+                latencies[BENCHMARK_SYNCS - 1] / 1e6,
+                mServer.getRequestCount(),
+                mServer.getErrorCount()));
+    }
+
+    private SyncResult sync() {
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(),
+                mContext.getString(R.string.content_authority), null, syncResult);
+        return syncResult;
+    }
+
+    private int countForecastRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -172,7 +172,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
             // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
+            // creating a Cursor for the data being displayed.  mUri is a single day, which the
+            // provider answers from its day-row cache as a copy without a CursorWindow, so
+            // there's nothing for a compact URI to save.
             return new CursorLoader(
                     getActivity(),
                     mUri,
@@ -313,8 +313,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        // The list holds on to its cursor while it's showing, so ask for the compact one.
+        Uri weatherForLocationUri = WeatherContract.buildCompactUri(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()));
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
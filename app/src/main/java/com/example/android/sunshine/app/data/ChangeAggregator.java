@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Collects what a write scope changed, so observers can be told once it is over.
+ *
+ * Weather changes are kept by location and date.  A location with one changed day is notified
+ * on that day's URI, which wakes the detail view for the day and the location's forecast list;
+ * a location with several is notified once on its own URI.  Observers of other locations aren't
+ * woken at all.  Only a change we can't place, such as deleting every row, is notified on the
+ * table's URI.
+ */
+class ChangeAggregator {
+
+    // Past this many changed rows in one update or delete, notify the whole table rather than
+    // look them all up.
+    static final int MAX_TRACKED_ROWS = 256;
+
+    private static final String[] AFFECTED_ROWS_PROJECTION = new String[] {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE
+    };
+
+    // Location row ID to the normalized dates changed for it.
+    private final Map<Long, Set<Long>> mWeatherDates = new HashMap<Long, Set<Long>>();
+    private final Set<Long> mLocationIds = new LinkedHashSet<Long>();
+    // Hourly samples are only read a location at a time, so that's all we track for them.
+    private final Set<Long> mHourlyLocationIds = new LinkedHashSet<Long>();
+    // The same goes for the archive.
+    private final Set<Long> mArchiveLocationIds = new LinkedHashSet<Long>();
+    private boolean mAllWeather;
+    private boolean mAllLocations;
+    private boolean mAllHourly;
+    private boolean mAllArchive;
+    private TimeZone mTimeZone;
+
+    void weatherChanged(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            mAllWeather = true;
+            return;
+        }
+        if (mTimeZone == null) {
+            mTimeZone = TimeZone.getDefault();
+        }
+        weatherChanged(locationId, WeatherContract.normalizeDate(date, mTimeZone));
+    }
+
+    void weatherChanged(long locationId, long normalizedDate) {
+        if (mAllWeather) {
+            return;
+        }
+        Set<Long> dates = mWeatherDates.get(locationId);
+        if (dates == null) {
+            dates = new HashSet<Long>();
+            mWeatherDates.put(locationId, dates);
+        }
+        dates.add(normalizedDate);
+    }
+
+    /**
+     * Records the weather rows an update or delete is about to change.  Call it before the
+     * write, while the rows still match the selection.
+     */
+    void weatherChanging(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        if (mAllWeather) {
+            return;
+        }
+        if (TextUtils.isEmpty(selection)) {
+            mAllWeather = true;
+            return;
+        }
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, AFFECTED_ROWS_PROJECTION,
+                selection, selectionArgs, null, null, null,
+                Integer.toString(MAX_TRACKED_ROWS + 1));
+        try {
+            if (cursor.getCount() > MAX_TRACKED_ROWS) {
+                mAllWeather = true;
+                return;
+            }
+            while (cursor.moveToNext()) {
+                weatherChanged(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void allWeatherChanged() {
+        mAllWeather = true;
+    }
+
+    void hourlyChanged(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+        if (locationId == null) {
+            mAllHourly = true;
+        } else {
+            mHourlyLocationIds.add(locationId);
+        }
+    }
+
+    void allHourlyChanged() {
+        mAllHourly = true;
+    }
+
+    void archiveChanged(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.ArchiveEntry.COLUMN_LOC_KEY);
+        if (locationId == null) {
+            mAllArchive = true;
+        } else {
+            mArchiveLocationIds.add(locationId);
+        }
+    }
+
+    void allArchiveChanged() {
+        mAllArchive = true;
+    }
+
+    void locationChanged(long locationId) {
+        mLocationIds.add(locationId);
+    }
+
+    void allLocationsChanged() {
+        mAllLocations = true;
+    }
+
+    /**
+     * @return what to notify for everything collected so far, once each.  Call it after the
+     * transaction commits.
+     */
+    List<Uri> getChangedUris(SQLiteDatabase db) {
+        List<Uri> uris = new ArrayList<Uri>();
+        if (mAllLocations) {
+            uris.add(LocationEntry.CONTENT_URI);
+        } else {
+            for (long locationId : mLocationIds) {
+                uris.add(LocationEntry.buildLocationUri(locationId));
+            }
+        }
+
+        Set<Long> locationIds = new HashSet<Long>(mWeatherDates.keySet());
+        locationIds.addAll(mHourlyLocationIds);
+        locationIds.addAll(mArchiveLocationIds);
+        Map<Long, String> settings = locationIds.isEmpty()
+                ? Collections.<Long, String>emptyMap() : getLocationSettings(db, locationIds);
+
+        if (mAllHourly || !settings.keySet().containsAll(mHourlyLocationIds)) {
+            uris.add(WeatherContract.HourlyEntry.CONTENT_URI);
+        } else {
+            for (long locationId : mHourlyLocationIds) {
+                uris.add(WeatherContract.HourlyEntry.buildHourlyLocation(settings.get(locationId)));
+            }
+        }
+        if (mAllArchive || !settings.keySet().containsAll(mArchiveLocationIds)) {
+            uris.add(WeatherContract.ArchiveEntry.CONTENT_URI);
+        } else {
+            for (long locationId : mArchiveLocationIds) {
+                uris.add(WeatherContract.ArchiveEntry.buildArchiveLocation(settings.get(locationId)));
+            }
+        }
+
+        if (!mAllWeather) {
+            for (long locationId : mWeatherDates.keySet()) {
+                if (!settings.containsKey(locationId)) {
+                    // The location is gone, so we can't tell who was showing it.
+                    mAllWeather = true;
+                    break;
+                }
+            }
+        }
+        if (mAllWeather) {
+            uris.add(WeatherEntry.CONTENT_URI);
+        } else {
+            for (Map.Entry<Long, Set<Long>> entry : mWeatherDates.entrySet()) {
+                String setting = settings.get(entry.getKey());
+                Set<Long> dates = entry.getValue();
+                if (dates.size() == 1) {
+                    uris.add(WeatherEntry.buildWeatherLocationWithDate(
+                            setting, dates.iterator().next()));
+                } else {
+                    uris.add(WeatherEntry.buildWeatherLocation(setting));
+                }
+            }
+        }
+        return uris;
+    }
+
+    private static Map<Long, String> getLocationSettings(SQLiteDatabase db, Set<Long> locationIds) {
+        StringBuilder selection = new StringBuilder(LocationEntry._ID + " IN (");
+        String[] selectionArgs = new String[locationIds.size()];
+        int i = 0;
+        for (long locationId : locationIds) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i++] = Long.toString(locationId);
+        }
+        selection.append(')');
+
+        Map<Long, String> settings = new HashMap<Long, String>(locationIds.size() * 2);
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[] {LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                settings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+}
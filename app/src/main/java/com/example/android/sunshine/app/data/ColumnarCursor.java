@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.os.Build;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A read-only cursor over a small result held column by column in primitive arrays: long[]
+ * for integer columns, double[] for real ones and String[] for text.
+ *
+ * The forecast list, the widgets and Muzei read a handful of columns from at most a couple of
+ * weeks of rows, but every SQLite cursor fills a CursorWindow sized for megabytes of type
+ * tagged cells, and holds it until it is closed, which for a loader is as long as the screen is
+ * up.  {@link #compact} reads such a result once, through a window it lends the query and takes
+ * back straight after, and keeps only the arrays.
+ */
+class ColumnarCursor extends AbstractCursor {
+
+    // Lending a window to a query relies on SQLiteCursor clearing the window it was given
+    // rather than making its own, which it does from Jelly Bean on.
+    private static final boolean CAN_LEND_WINDOW =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+    // One spare window, shared by whichever query gets it first.  The others make their own.
+    private static final AtomicReference<CursorWindow> sSpareWindow =
+            new AtomicReference<CursorWindow>();
+
+    private final String[] mColumnNames;
+    private final int mCount;
+    // Cursor.FIELD_TYPE_* of each column, or FIELD_TYPE_NULL if every row is null.
+    private final int[] mTypes;
+    // Per column: a long[], double[] or String[] as its type says, or null.
+    private final Object[] mValues;
+    // Per column, which rows are null, or null if none are.
+    private final boolean[][] mNulls;
+
+    private ColumnarCursor(String[] columnNames, int count, int[] types, Object[] values,
+                           boolean[][] nulls) {
+        mColumnNames = columnNames;
+        mCount = count;
+        mTypes = types;
+        mValues = values;
+        mNulls = nulls;
+    }
+
+    /**
+     * Reads the source into a ColumnarCursor and closes it.  If it has more than maxRows rows, or
+     * a column that doesn't fit, the source is returned instead, before its first row.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static Cursor compact(Cursor source, int maxRows) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // No Cursor.getType to copy with.
+            return source;
+        }
+        CursorWindow lent = null;
+        if (CAN_LEND_WINDOW && source instanceof AbstractWindowedCursor
+                && !((AbstractWindowedCursor) source).hasWindow()) {
+            lent = sSpareWindow.getAndSet(null);
+            if (lent == null) {
+                lent = new CursorWindow(ColumnarCursor.class.getSimpleName());
+            }
+            // The source releases this reference when it is closed; ours keeps the window.
+            lent.acquireReference();
+            ((AbstractWindowedCursor) source).setWindow(lent);
+        }
+
+        ColumnarCursor copy = copyOf(source, maxRows);
+        if (copy == null) {
+            if (lent != null) {
+                // The source keeps using it.
+                lent.close();
+            }
+            source.moveToPosition(-1);
+            return source;
+        }
+        source.close();
+        if (lent != null && !sSpareWindow.compareAndSet(null, lent)) {
+            lent.close();
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy of the source's rows, or null if it has more than maxRows of them or a
+     * column holds blobs or more than one type.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static ColumnarCursor copyOf(Cursor source, int maxRows) {
+        int count = source.getCount();
+        if (count > maxRows) {
+            return null;
+        }
+        int columnCount = source.getColumnCount();
+        int[] types = new int[columnCount];
+        Object[] values = new Object[columnCount];
+        boolean[][] nulls = new boolean[columnCount][];
+
+        source.moveToPosition(-1);
+        for (int row = 0; source.moveToNext(); row++) {
+            for (int column = 0; column < columnCount; column++) {
+                int type = source.getType(column);
+                if (type == FIELD_TYPE_NULL) {
+                    if (nulls[column] == null) {
+                        nulls[column] = new boolean[count];
+                    }
+                    nulls[column][row] = true;
+                    continue;
+                }
+                if (types[column] == FIELD_TYPE_NULL) {
+                    types[column] = type;
+                    switch (type) {
+                        case FIELD_TYPE_INTEGER:
+                            values[column] = new long[count];
+                            break;
+                        case FIELD_TYPE_FLOAT:
+                            values[column] = new double[count];
+                            break;
+                        case FIELD_TYPE_STRING:
+                            values[column] = new String[count];
+                            break;
+                        default:
+                            return null;
+                    }
+                } else if (types[column] != type) {
+                    return null;
+                }
+                switch (type) {
+                    case FIELD_TYPE_INTEGER:
+                        ((long[]) values[column])[row] = source.getLong(column);
+                        break;
+                    case FIELD_TYPE_FLOAT:
+                        ((double[]) values[column])[row] = source.getDouble(column);
+                        break;
+                    default:
+                        ((String[]) values[column])[row] = source.getString(column);
+                        break;
+                }
+            }
+        }
+        return new ColumnarCursor(source.getColumnNames(), count, types, values, nulls);
+    }
+
+    /**
+     * @return roughly how many bytes the copied values take, for the benchmarks.
+     */
+    long getValueBytes() {
+        long bytes = 0;
+        for (int column = 0; column < mTypes.length; column++) {
+            switch (mTypes[column]) {
+                case FIELD_TYPE_INTEGER:
+                case FIELD_TYPE_FLOAT:
+                    bytes += 8L * mCount;
+                    break;
+                case FIELD_TYPE_STRING:
+                    for (String value : (String[]) mValues[column]) {
+                        bytes += 4 + (value != null ? 2L * value.length() : 0);
+                    }
+                    break;
+            }
+            if (mNulls[column] != null) {
+                bytes += mCount;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        return isNull(column) ? FIELD_TYPE_NULL : mTypes[column];
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        checkPosition();
+        return mTypes[column] == FIELD_TYPE_NULL
+                || (mNulls[column] != null && mNulls[column][mPos]);
+    }
+
+    @Override
+    public String getString(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        switch (mTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                return Long.toString(((long[]) mValues[column])[mPos]);
+            case FIELD_TYPE_FLOAT:
+                return Double.toString(((double[]) mValues[column])[mPos]);
+            default:
+                return ((String[]) mValues[column])[mPos];
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (isNull(column)) {
+            return 0;
+        }
+        switch (mTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                return ((long[]) mValues[column])[mPos];
+            case FIELD_TYPE_FLOAT:
+                return (long) ((double[]) mValues[column])[mPos];
+            default:
+                // Like SQLite, text that isn't a number reads as 0.
+                try {
+                    return Long.parseLong(((String[]) mValues[column])[mPos]);
+                } catch (NumberFormatException e) {
+                    return (long) getDouble(column);
+                }
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        if (isNull(column)) {
+            return 0;
+        }
+        switch (mTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                return ((long[]) mValues[column])[mPos];
+            case FIELD_TYPE_FLOAT:
+                return ((double[]) mValues[column])[mPos];
+            default:
+                try {
+                    return Double.parseDouble(((String[]) mValues[column])[mPos]);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the answers to the last few WEATHER_WITH_LOCATION_AND_DATE queries: the single day of
+ * one location that the notification, the wearable and the detail views all ask for.
+ *
+ * Entries are dropped using the URIs a write is notified on, so only the days and locations it
+ * changed are re-read.  A query that read SQLite before a write committed can still finish
+ * after the write's invalidation, so every invalidation starts a new generation, and a result
+ * from an older generation is handed back but not cached.
+ */
+class DayRowCache {
+
+    private static final int MAX_ENTRIES = 16;
+    // The date lookups return at most one row; don't keep anything bigger.
+    private static final int MAX_ROWS = 1;
+
+    // Copying a row needs Cursor.getType.
+    private static final boolean ENABLED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    private static class Entry {
+        final String locationSetting;
+        final long date;
+        final String[] columns;
+        final Object[][] rows;
+
+        Entry(String locationSetting, long date, String[] columns, Object[][] rows) {
+            this.locationSetting = locationSetting;
+            this.date = date;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_ENTRIES);
+    private long mGeneration;
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * @return a cursor over the cached answer, or null if the query has to go to SQLite.
+     */
+    Cursor get(String locationSetting, long date, String[] projection) {
+        if (!ENABLED) {
+            return null;
+        }
+        Entry entry = mEntries.get(key(locationSetting, date, projection));
+        synchronized (this) {
+            if (entry == null) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+        }
+        return entry.newCursor();
+    }
+
+    /**
+     * Call before querying SQLite, and pass the result to {@link #put}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies a query's result into the cache, unless something was written since generation.
+     *
+     * @return a cursor with the same rows.  The given cursor may have been closed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(String locationSetting, long date, String[] projection, long generation,
+               Cursor cursor) {
+        if (!ENABLED || cursor == null || cursor.getCount() > MAX_ROWS) {
+            return cursor;
+        }
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][columns.length];
+        try {
+            for (int row = 0; cursor.moveToNext(); row++) {
+                for (int i = 0; i < columns.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            rows[row][i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            rows[row][i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            rows[row][i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            rows[row][i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            rows[row][i] = null;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Entry entry = new Entry(locationSetting, date, columns, rows);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key(locationSetting, date, projection), entry);
+            }
+        }
+        return entry.newCursor();
+    }
+
+    /**
+     * Drops whatever the changes notified on these URIs could have made stale.
+     */
+    synchronized void invalidate(List<Uri> changedUris) {
+        if (changedUris.isEmpty()) {
+            return;
+        }
+        mGeneration++;
+        for (Uri uri : changedUris) {
+            List<String> segments = uri.getPathSegments();
+            if (!segments.isEmpty() && (WeatherContract.PATH_HOURLY.equals(segments.get(0))
+                    || WeatherContract.PATH_ARCHIVE.equals(segments.get(0)))) {
+                // Hourly samples and the archive aren't cached here.
+                continue;
+            }
+            if (segments.size() == 2 && WeatherContract.PATH_LOCATION.equals(segments.get(0))) {
+                // A new location: no day of it can have been cached with rows.
+                continue;
+            }
+            if (segments.size() < 2 || !WeatherContract.PATH_WEATHER.equals(segments.get(0))) {
+                // A whole table, or a change to locations, which every cached row joins.
+                mEntries.evictAll();
+                return;
+            }
+            String locationSetting = segments.get(1);
+            Long date = segments.size() > 2 ? Long.parseLong(segments.get(2)) : null;
+            for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+                Entry entry = cached.getValue();
+                if (entry.locationSetting.equals(locationSetting)
+                        && (date == null || entry.date == date)) {
+                    mEntries.remove(cached.getKey());
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private static String key(String locationSetting, long date, String[] projection) {
+        return locationSetting + '\n' + date + '\n' + Arrays.toString(projection);
+    }
+}
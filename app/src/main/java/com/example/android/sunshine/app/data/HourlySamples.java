@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * One location's hourly (or 3-hourly) forecast for one day, and the packed block it is stored
+ * as in the hourly table.
+ *
+ * A block is a format byte and a sample count, followed by 13 bytes per sample: the minutes
+ * since the start of the day, then temperature, humidity, pressure, wind speed, wind direction
+ * and weather id, each as a fixed-point integer.  Values are rounded to the precision the UI
+ * shows them at, or finer: temperatures and wind speed to 0.01, pressure to 0.1 hPa, humidity
+ * and direction to whole numbers.
+ */
+public final class HourlySamples {
+
+    private static final byte FORMAT = 1;
+    private static final int HEADER_BYTES = 2;
+    private static final int SAMPLE_BYTES = 13;
+
+    // A day has at most this many samples; a sample count has to fit in the header's byte.
+    public static final int MAX_SAMPLES = 255;
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private final long mDate;
+    private int mSize;
+    private int[] mMinutes;
+    private short[] mTemperatures;
+    private byte[] mHumidities;
+    private char[] mPressures;
+    private char[] mWindSpeeds;
+    private char[] mDegrees;
+    private char[] mWeatherIds;
+
+    /**
+     * @param date the normalized date of the day the samples are for.
+     */
+    public HourlySamples(long date, int capacity) {
+        mDate = date;
+        allocate(Math.min(Math.max(capacity, 1), MAX_SAMPLES));
+    }
+
+    /**
+     * @param time when the sample is for, on the samples' day.
+     */
+    public void add(long time, double temperature, double humidity, double pressure,
+                    double windSpeed, double degrees, int weatherId) {
+        if (mSize == MAX_SAMPLES) {
+            throw new IllegalStateException("A day holds at most " + MAX_SAMPLES + " samples");
+        }
+        long minutes = (time - mDate) / MINUTE_IN_MILLIS;
+        // A little over a day, for the day the clocks go back.
+        if (minutes < 0 || minutes > 25 * 60) {
+            throw new IllegalArgumentException(time + " isn't on the day starting at " + mDate);
+        }
+        if (mSize == mMinutes.length) {
+            grow();
+        }
+        mMinutes[mSize] = (int) minutes;
+        mTemperatures[mSize] = (short) Math.round(temperature * 100);
+        mHumidities[mSize] = (byte) Math.round(humidity);
+        mPressures[mSize] = (char) Math.round(pressure * 10);
+        mWindSpeeds[mSize] = (char) Math.round(windSpeed * 100);
+        mDegrees[mSize] = (char) Math.round(degrees);
+        mWeatherIds[mSize] = (char) weatherId;
+        mSize++;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getTime(int i) {
+        return mDate + mMinutes[i] * MINUTE_IN_MILLIS;
+    }
+
+    public double getTemperature(int i) {
+        return mTemperatures[i] / 100.0;
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i] & 0xff;
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i] / 10.0;
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i] / 100.0;
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public byte[] encode() {
+        ByteBuffer block = ByteBuffer.allocate(HEADER_BYTES + mSize * SAMPLE_BYTES);
+        block.put(FORMAT);
+        block.put((byte) mSize);
+        for (int i = 0; i < mSize; i++) {
+            block.putChar((char) mMinutes[i]);
+            block.putShort(mTemperatures[i]);
+            block.put(mHumidities[i]);
+            block.putChar(mPressures[i]);
+            block.putChar(mWindSpeeds[i]);
+            block.putChar(mDegrees[i]);
+            block.putChar(mWeatherIds[i]);
+        }
+        return block.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the block isn't one {@link #encode()} wrote.
+     */
+    public static HourlySamples decode(long date, byte[] block) {
+        if (block == null || block.length < HEADER_BYTES || block[0] != FORMAT) {
+            throw new IllegalArgumentException("Not an hourly samples block");
+        }
+        int size = block[1] & 0xff;
+        if (block.length != HEADER_BYTES + size * SAMPLE_BYTES) {
+            throw new IllegalArgumentException("Hourly samples block has the wrong length");
+        }
+        HourlySamples samples = new HourlySamples(date, size);
+        ByteBuffer buffer = ByteBuffer.wrap(block, HEADER_BYTES, size * SAMPLE_BYTES);
+        for (int i = 0; i < size; i++) {
+            samples.mMinutes[i] = buffer.getChar();
+            samples.mTemperatures[i] = buffer.getShort();
+            samples.mHumidities[i] = buffer.get();
+            samples.mPressures[i] = buffer.getChar();
+            samples.mWindSpeeds[i] = buffer.getChar();
+            samples.mDegrees[i] = buffer.getChar();
+            samples.mWeatherIds[i] = buffer.getChar();
+        }
+        samples.mSize = size;
+        return samples;
+    }
+
+    private void allocate(int capacity) {
+        mMinutes = new int[capacity];
+        mTemperatures = new short[capacity];
+        mHumidities = new byte[capacity];
+        mPressures = new char[capacity];
+        mWindSpeeds = new char[capacity];
+        mDegrees = new char[capacity];
+        mWeatherIds = new char[capacity];
+    }
+
+    private void grow() {
+        int capacity = Math.min(mMinutes.length * 2, MAX_SAMPLES);
+        mMinutes = Arrays.copyOf(mMinutes, capacity);
+        mTemperatures = Arrays.copyOf(mTemperatures, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the row ID of each location setting, so a sync only has to ask the database about
+ * a location the first time it sees it.
+ *
+ * Location rows are only ever added during normal use, and an ID never changes while its row
+ * exists, so the only thing that can make an entry wrong is an update or delete of the location
+ * table.  The provider calls {@link #invalidate} once such a write commits.  As with the
+ * DayRowCache, a lookup that read the database before that invalidation isn't remembered.
+ */
+public final class LocationRegistry {
+
+    private static final Map<String, Long> sIds = new HashMap<String, Long>();
+    private static long sGeneration;
+    private static int sHits;
+
+    private LocationRegistry() {
+    }
+
+    /**
+     * @return the row ID of the location with this setting, inserting the values if there isn't
+     * one yet.  Concurrent callers get the same row: the provider's location insert keeps the
+     * row that is already there.
+     */
+    public static long resolve(ContentResolver resolver, String locationSetting,
+                               ContentValues locationValues) {
+        long generation;
+        synchronized (LocationRegistry.class) {
+            Long id = sIds.get(locationSetting);
+            if (id != null) {
+                sHits++;
+                return id;
+            }
+            generation = sGeneration;
+        }
+        Uri locationUri = resolver.insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        long id = ContentUris.parseId(locationUri);
+        remember(locationSetting, id, generation);
+        return id;
+    }
+
+    /**
+     * @return the row ID of the location with this setting, or -1 if it isn't stored yet.
+     */
+    public static long find(ContentResolver resolver, String locationSetting) {
+        long generation;
+        synchronized (LocationRegistry.class) {
+            Long id = sIds.get(locationSetting);
+            if (id != null) {
+                sHits++;
+                return id;
+            }
+            generation = sGeneration;
+        }
+        Cursor cursor = resolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                // Not remembered, so the next look sees it once it's inserted.
+                return -1;
+            }
+            long id = cursor.getLong(0);
+            remember(locationSetting, id, generation);
+            return id;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return how many lookups were answered without asking the database.
+     */
+    public static synchronized int getHitCount() {
+        return sHits;
+    }
+
+    /**
+     * Forgets every location, after the location table was updated or deleted from.
+     */
+    static synchronized void invalidate() {
+        sGeneration++;
+        sIds.clear();
+    }
+
+    private static synchronized void remember(String locationSetting, long id, long generation) {
+        if (generation == sGeneration) {
+            sIds.put(locationSetting, id);
+        }
+    }
+}
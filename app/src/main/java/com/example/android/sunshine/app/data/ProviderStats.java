@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+
+/**
+ * What WeatherProvider has been asked to do, and how long it took: a latency histogram, row
+ * counts, transaction time and the calling UIDs for each operation on each kind of URI.
+ *
+ * Recording is a few additions under a lock, so it is always on.  Counting the rows a query
+ * returns is not: it makes SQLite fill a window before the caller has asked for any of them, so
+ * queries only report their rows in debug builds.
+ *
+ * Latencies go into buckets of powers of two microseconds, which is enough to tell a cached
+ * answer from a query from a transaction that waited on the disk; percentiles are reported as
+ * their bucket's upper bound.
+ */
+class ProviderStats {
+
+    static final boolean COUNT_QUERY_ROWS = BuildConfig.DEBUG;
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_APPLY_BATCH = 5;
+    static final int OP_CALL = 6;
+
+    private static final String[] OPERATION_NAMES = new String[] {
+            "query", "insert", "bulkInsert", "update", "delete", "applyBatch", "call"
+    };
+
+    // Bucket i counts latencies under 2^i microseconds; the last one everything slower.
+    private static final int BUCKETS = 24;
+    // Room in a key for every URI code, plus one for calls without a URI code.
+    private static final int URI_CODES = 1024;
+
+    private static final String[] COLUMNS = new String[] {
+            DiagnosticsEntry._ID,
+            DiagnosticsEntry.COLUMN_OPERATION,
+            DiagnosticsEntry.COLUMN_URI,
+            DiagnosticsEntry.COLUMN_CALLS,
+            DiagnosticsEntry.COLUMN_P50_MICROS,
+            DiagnosticsEntry.COLUMN_P95_MICROS,
+            DiagnosticsEntry.COLUMN_P99_MICROS,
+            DiagnosticsEntry.COLUMN_MAX_MICROS,
+            DiagnosticsEntry.COLUMN_ROWS_IN,
+            DiagnosticsEntry.COLUMN_ROWS_OUT,
+            DiagnosticsEntry.COLUMN_TRANSACTIONS,
+            DiagnosticsEntry.COLUMN_TRANSACTION_MICROS,
+            DiagnosticsEntry.COLUMN_CALLERS
+    };
+
+    private static class Entry {
+        final int operation;
+        final int uriCode;
+        final long[] buckets = new long[BUCKETS];
+        long calls;
+        long maxNanos;
+        long rowsIn;
+        long rowsOut;
+        long transactions;
+        long transactionNanos;
+        // Calling UID to calls.  Names are only looked up when the stats are read.
+        final SparseIntArray callers = new SparseIntArray(2);
+
+        Entry(int operation, int uriCode) {
+            this.operation = operation;
+            this.uriCode = uriCode;
+        }
+
+        /**
+         * @return the upper bound, in microseconds, of the bucket holding the given share of
+         * the calls.
+         */
+        long percentile(double share) {
+            long rank = (long) Math.ceil(calls * share);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxNanos / 1000);
+                }
+            }
+            return maxNanos / 1000;
+        }
+    }
+
+    private final SparseArray<Entry> mEntries = new SparseArray<Entry>();
+
+    /**
+     * @param uriCode the URI's UriMatcher code, or -1 if the call had none.
+     * @param transactionNanos time spent in an explicit transaction, or 0 if there wasn't one.
+     */
+    synchronized void record(int operation, int uriCode, long startNanos, int rowsIn,
+                             int rowsOut, long transactionNanos, int callingUid) {
+        long nanos = System.nanoTime() - startNanos;
+        int key = operation * URI_CODES + uriCode + 1;
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(operation, uriCode);
+            mEntries.put(key, entry);
+        }
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        entry.buckets[Math.min(bucket, BUCKETS - 1)]++;
+        entry.calls++;
+        entry.maxNanos = Math.max(entry.maxNanos, nanos);
+        entry.rowsIn += rowsIn;
+        entry.rowsOut += rowsOut;
+        if (transactionNanos > 0) {
+            entry.transactions++;
+            entry.transactionNanos += transactionNanos;
+        }
+        entry.callers.put(callingUid, entry.callers.get(callingUid) + 1);
+    }
+
+    /**
+     * @return how many operations and URIs had stats.
+     */
+    synchronized int reset() {
+        int count = mEntries.size();
+        mEntries.clear();
+        return count;
+    }
+
+    /**
+     * @return a row per operation and URI, with the columns of {@link DiagnosticsEntry}.
+     */
+    synchronized Cursor toCursor(PackageManager packageManager) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, mEntries.size());
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            cursor.addRow(new Object[] {
+                    i,
+                    OPERATION_NAMES[entry.operation],
+                    WeatherProvider.getUriName(entry.uriCode),
+                    entry.calls,
+                    entry.percentile(0.50),
+                    entry.percentile(0.95),
+                    entry.percentile(0.99),
+                    entry.maxNanos / 1000,
+                    entry.rowsIn,
+                    entry.rowsOut,
+                    entry.transactions,
+                    entry.transactions > 0 ? entry.transactionNanos / 1000 / entry.transactions : 0,
+                    describeCallers(entry.callers, packageManager)
+            });
+        }
+        return cursor;
+    }
+
+    private static String describeCallers(SparseIntArray callers, PackageManager packageManager) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < callers.size(); i++) {
+            if (i > 0) {
+                description.append(',');
+            }
+            String name = packageManager.getNameForUid(callers.keyAt(i));
+            description.append(name != null ? name : Integer.toString(callers.keyAt(i)))
+                    .append('=').append(callers.valueAt(i));
+        }
+        return description.toString();
+    }
+}
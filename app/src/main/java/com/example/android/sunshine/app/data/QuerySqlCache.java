@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The SELECTs a SQLiteQueryBuilder makes, built once for each kind of URI, selection,
+ * projection and sort order, for queries the provider answers many times over.
+ *
+ * SQLiteQueryBuilder.query builds its SQL afresh on every call, a few hundred characters
+ * through a StringBuilder.  The connection then finds its prepared statement by that text, so
+ * the new String is hashed and compared in full each time.  Handing back the same String skips
+ * the building, and the String keeps its hash, so the prepared statement is found by identity.
+ * Arguments are bound per call as before; SQLite copies them into each query anyway.
+ *
+ * It is a small direct-mapped table: a lookup allocates nothing, and a query that lands on
+ * another's slot replaces it.  Entries are immutable, so binder threads share it without a lock.
+ */
+final class QuerySqlCache {
+
+    // A power of two, comfortably more than the projection and sort combinations the app uses.
+    private static final int SIZE = 32;
+
+    private static final class Entry {
+        final int uriType;
+        final String selection;
+        final String[] projection;
+        final String sortOrder;
+        final int hash;
+        final String sql;
+
+        Entry(int uriType, String selection, String[] projection, String sortOrder, int hash,
+              String sql) {
+            this.uriType = uriType;
+            this.selection = selection;
+            // The caller may reuse its array for something else.
+            this.projection = projection != null ? projection.clone() : null;
+            this.sortOrder = sortOrder;
+            this.hash = hash;
+            this.sql = sql;
+        }
+
+        boolean matches(int uriType, String selection, String[] projection, String sortOrder,
+                        int hash) {
+            return this.hash == hash
+                    && this.uriType == uriType
+                    && equals(this.selection, selection)
+                    && equals(this.sortOrder, sortOrder)
+                    && Arrays.equals(this.projection, projection);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final SQLiteQueryBuilder mBuilder;
+    private final String mEditTable;
+    private final AtomicReferenceArray<Entry> mEntries = new AtomicReferenceArray<Entry>(SIZE);
+    private final AtomicInteger mBuildCount = new AtomicInteger();
+
+    /**
+     * @param builder has its tables set, and isn't changed afterwards.
+     * @param editTable the table cursors report as theirs, as the builder's query would.
+     */
+    QuerySqlCache(SQLiteQueryBuilder builder, String editTable) {
+        mBuilder = builder;
+        mEditTable = editTable;
+    }
+
+    /**
+     * Same as the builder's query with no grouping or limit.
+     *
+     * @param uriType the UriMatcher code of the URI being answered.
+     */
+    Cursor query(SQLiteDatabase db, int uriType, String[] projection, String selection,
+                 String[] selectionArgs, String sortOrder) {
+        return db.rawQueryWithFactory(null, getSql(uriType, projection, selection, sortOrder),
+                selectionArgs, mEditTable);
+    }
+
+    /**
+     * @return the SELECT the builder makes for the query, the same String each time it's
+     * still cached.
+     */
+    @SuppressWarnings("deprecation")
+    String getSql(int uriType, String[] projection, String selection, String sortOrder) {
+        int hash = hash(uriType, projection, selection, sortOrder);
+        int index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+        Entry entry = mEntries.get(index);
+        if (entry != null && entry.matches(uriType, selection, projection, sortOrder, hash)) {
+            return entry.sql;
+        }
+        mBuildCount.incrementAndGet();
+        // The overload available before Honeycomb; the arguments it takes are unused.
+        String sql = mBuilder.buildQuery(projection, selection, null, null, null, sortOrder,
+                null);
+        mEntries.set(index, new Entry(uriType, selection, projection, sortOrder, hash, sql));
+        return sql;
+    }
+
+    /**
+     * @return how many times the SQL had to be built, for the tests.
+     */
+    int getBuildCount() {
+        return mBuildCount.get();
+    }
+
+    private static int hash(int uriType, String[] projection, String selection,
+                            String sortOrder) {
+        int hash = uriType;
+        hash = 31 * hash + (selection != null ? selection.hashCode() : 0);
+        hash = 31 * hash + Arrays.hashCode(projection);
+        hash = 31 * hash + (sortOrder != null ? sortOrder.hashCode() : 0);
+        return hash;
+    }
+}
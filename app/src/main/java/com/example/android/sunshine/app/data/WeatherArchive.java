@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Moves past weather out of the weather table into the archive's weekly summaries, and folds
+ * old weeks into months and old months into years.
+ *
+ * The weather table only holds the retention window, the archive at most KEEP_WEEKS weeks and
+ * KEEP_MONTHS months per location, and after that a row per year, so the database grows by a
+ * row a year rather than a row a day.  Every write goes through the provider inside one of its
+ * batches: a chunk of days is archived and deleted in the same transaction, so a day is never
+ * counted twice or lost, and observers hear about it once.
+ */
+class WeatherArchive {
+
+    // How many of the most recent weeks and months stay at that resolution.
+    static final int KEEP_WEEKS = 8;
+    static final int KEEP_MONTHS = 24;
+
+    private static final String[] DAY_PROJECTION = new String[] {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private static final String[] SUMMARY_PROJECTION = new String[] {
+            ArchiveEntry.COLUMN_START_DATE,
+            ArchiveEntry.COLUMN_DAY_COUNT,
+            ArchiveEntry.COLUMN_MIN_TEMP,
+            ArchiveEntry.COLUMN_MAX_TEMP,
+            ArchiveEntry.COLUMN_MEAN_TEMP,
+            ArchiveEntry.COLUMN_WEATHER_ID,
+            ArchiveEntry.COLUMN_WEATHER_DAYS
+    };
+
+    private static final String EXPIRED_DAYS_SELECTION =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    private static final String SUMMARY_SELECTION = ArchiveEntry.COLUMN_LOC_KEY + " = ? AND "
+            + ArchiveEntry.COLUMN_PERIOD + " = ? AND " + ArchiveEntry.COLUMN_START_DATE + " = ?";
+
+    private static final String SUMMARIES_BEFORE_SELECTION = ArchiveEntry.COLUMN_LOC_KEY
+            + " = ? AND " + ArchiveEntry.COLUMN_PERIOD + " = ? AND "
+            + ArchiveEntry.COLUMN_START_DATE + " < ?";
+
+    private final WeatherProvider mProvider;
+    private final SQLiteDatabase mDb;
+    private final int mChunkRows;
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+
+    WeatherArchive(WeatherProvider provider, SQLiteDatabase db, int chunkRows) {
+        mProvider = provider;
+        mDb = db;
+        mChunkRows = chunkRows;
+    }
+
+    /**
+     * Moves the location's days before firstKeptDate into the archive.
+     *
+     * @return how many rows left the weather table.
+     */
+    int archiveDaysBefore(long locationId, long firstKeptDate) {
+        int archived = 0;
+        int chunk;
+        do {
+            mProvider.beginBatch();
+            try {
+                chunk = archiveChunk(locationId, firstKeptDate);
+                mProvider.setBatchSuccessful();
+            } finally {
+                mProvider.endBatch();
+            }
+            archived += chunk;
+        } while (chunk == mChunkRows);
+        return archived;
+    }
+
+    /**
+     * Folds the location's weeks older than KEEP_WEEKS into their months, and months older than
+     * KEEP_MONTHS into their years.
+     */
+    void rollUp(long locationId, long now) {
+        mProvider.beginBatch();
+        try {
+            fold(locationId, ArchiveEntry.PERIOD_WEEK, ArchiveEntry.PERIOD_MONTH,
+                    addPeriods(ArchiveEntry.PERIOD_WEEK,
+                            getPeriodStart(ArchiveEntry.PERIOD_WEEK, now), -KEEP_WEEKS));
+            fold(locationId, ArchiveEntry.PERIOD_MONTH, ArchiveEntry.PERIOD_YEAR,
+                    addPeriods(ArchiveEntry.PERIOD_MONTH,
+                            getPeriodStart(ArchiveEntry.PERIOD_MONTH, now), -KEEP_MONTHS));
+            mProvider.setBatchSuccessful();
+        } finally {
+            mProvider.endBatch();
+        }
+    }
+
+    private int archiveChunk(long locationId, long firstKeptDate) {
+        Map<Long, Summary> weeks = new TreeMap<Long, Summary>();
+        long lastDate = 0;
+        int days = 0;
+        // Oldest first, so the chunk is every expired day up to lastDate: there's only one row
+        // per location and day.
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, DAY_PROJECTION,
+                EXPIRED_DAYS_SELECTION,
+                new String[] {Long.toString(locationId), Long.toString(firstKeptDate)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(mChunkRows));
+        try {
+            while (cursor.moveToNext()) {
+                lastDate = cursor.getLong(0);
+                long weekStart = getPeriodStart(ArchiveEntry.PERIOD_WEEK, lastDate);
+                Summary week = weeks.get(weekStart);
+                if (week == null) {
+                    week = new Summary();
+                    weeks.put(weekStart, week);
+                }
+                week.addDay(cursor.getDouble(1), cursor.getDouble(2), cursor.getInt(3));
+                days++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (days == 0) {
+            return 0;
+        }
+
+        for (Map.Entry<Long, Summary> week : weeks.entrySet()) {
+            merge(locationId, ArchiveEntry.PERIOD_WEEK, week.getKey(), week.getValue());
+        }
+        return mProvider.delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] {Long.toString(locationId), Long.toString(lastDate)});
+    }
+
+    private void fold(long locationId, int fromPeriod, int toPeriod, long before) {
+        String[] selectionArgs = new String[] {Long.toString(locationId),
+                Integer.toString(fromPeriod), Long.toString(before)};
+        Map<Long, Summary> targets = new TreeMap<Long, Summary>();
+        Cursor cursor = mDb.query(ArchiveEntry.TABLE_NAME, SUMMARY_PROJECTION,
+                SUMMARIES_BEFORE_SELECTION, selectionArgs, null, null, null);
+        try {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                long targetStart = getPeriodStart(toPeriod, cursor.getLong(0));
+                Summary target = targets.get(targetStart);
+                if (target == null) {
+                    target = new Summary();
+                    targets.put(targetStart, target);
+                }
+                target.add(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (Map.Entry<Long, Summary> target : targets.entrySet()) {
+            merge(locationId, toPeriod, target.getKey(), target.getValue());
+        }
+        mProvider.delete(ArchiveEntry.CONTENT_URI, SUMMARIES_BEFORE_SELECTION, selectionArgs);
+    }
+
+    /**
+     * Adds the summary to what the archive already has for the period, replacing its row.
+     */
+    private void merge(long locationId, int period, long startDate, Summary summary) {
+        Cursor cursor = mDb.query(ArchiveEntry.TABLE_NAME, SUMMARY_PROJECTION,
+                SUMMARY_SELECTION, new String[] {Long.toString(locationId),
+                        Integer.toString(period), Long.toString(startDate)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                summary.add(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        mProvider.insert(ArchiveEntry.CONTENT_URI,
+                summary.toValues(locationId, period, startDate));
+    }
+
+    /**
+     * @return the normalized date the period containing the date starts on.  Weeks start on the
+     * locale's first day of the week.
+     */
+    long getPeriodStart(int period, long date) {
+        mCalendar.setTimeInMillis(date);
+        switch (period) {
+            case ArchiveEntry.PERIOD_WEEK:
+                int daysIntoWeek = (mCalendar.get(Calendar.DAY_OF_WEEK)
+                        - mCalendar.getFirstDayOfWeek() + 7) % 7;
+                mCalendar.add(Calendar.DAY_OF_MONTH, -daysIntoWeek);
+                break;
+            case ArchiveEntry.PERIOD_MONTH:
+                mCalendar.set(Calendar.DAY_OF_MONTH, 1);
+                break;
+            case ArchiveEntry.PERIOD_YEAR:
+                mCalendar.set(Calendar.DAY_OF_YEAR, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown period: " + period);
+        }
+        return WeatherContract.normalizeDate(mCalendar.getTimeInMillis(), mTimeZone);
+    }
+
+    private long addPeriods(int period, long startDate, int count) {
+        mCalendar.setTimeInMillis(startDate);
+        mCalendar.add(period == ArchiveEntry.PERIOD_WEEK ? Calendar.WEEK_OF_YEAR
+                : period == ArchiveEntry.PERIOD_MONTH ? Calendar.MONTH : Calendar.YEAR, count);
+        return WeatherContract.normalizeDate(mCalendar.getTimeInMillis(), mTimeZone);
+    }
+
+    /**
+     * The running figures for one period.
+     */
+    static class Summary {
+        int dayCount;
+        double minTemp = Double.POSITIVE_INFINITY;
+        double maxTemp = Double.NEGATIVE_INFINITY;
+        double meanTemp;
+        // Days seen per weather id.  Days add one each; a summary adds its dominant id's days.
+        private final Map<Integer, Integer> mWeatherDays = new LinkedHashMap<Integer, Integer>();
+
+        void addDay(double min, double max, int weatherId) {
+            add(1, min, max, (min + max) / 2, weatherId, 1);
+        }
+
+        /**
+         * Adds a row read with SUMMARY_PROJECTION.
+         */
+        void add(Cursor summary) {
+            add(summary.getInt(1), summary.getDouble(2), summary.getDouble(3),
+                    summary.getDouble(4), summary.getInt(5), summary.getInt(6));
+        }
+
+        void add(int days, double min, double max, double mean, int weatherId, int weatherDays) {
+            meanTemp = (meanTemp * dayCount + mean * days) / (dayCount + days);
+            dayCount += days;
+            minTemp = Math.min(minTemp, min);
+            maxTemp = Math.max(maxTemp, max);
+            Integer seen = mWeatherDays.get(weatherId);
+            mWeatherDays.put(weatherId, seen == null ? weatherDays : seen + weatherDays);
+        }
+
+        ContentValues toValues(long locationId, int period, long startDate) {
+            int weatherId = 0;
+            int weatherDays = 0;
+            for (Map.Entry<Integer, Integer> entry : mWeatherDays.entrySet()) {
+                if (entry.getValue() > weatherDays) {
+                    weatherId = entry.getKey();
+                    weatherDays = entry.getValue();
+                }
+            }
+            ContentValues values = new ContentValues();
+            values.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+            values.put(ArchiveEntry.COLUMN_PERIOD, period);
+            values.put(ArchiveEntry.COLUMN_START_DATE, startDate);
+            values.put(ArchiveEntry.COLUMN_DAY_COUNT, dayCount);
+            values.put(ArchiveEntry.COLUMN_MIN_TEMP, minTemp);
+            values.put(ArchiveEntry.COLUMN_MAX_TEMP, maxTemp);
+            values.put(ArchiveEntry.COLUMN_MEAN_TEMP, meanTemp);
+            values.put(ArchiveEntry.COLUMN_WEATHER_ID, weatherId);
+            values.put(ArchiveEntry.COLUMN_WEATHER_DAYS, weatherDays);
+            return values;
+        }
+    }
+}
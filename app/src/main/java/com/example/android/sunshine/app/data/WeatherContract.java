@@ -17,9 +17,11 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.ContentValues;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +45,51 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+
+    // Provider call() that moves the weather older than each location's retention window into
+    // the archive, a chunk at a time, and returns how many rows went and how many pages are now
+    // free.  With
+    // EXTRA_RECLAIM_SPACE set it also gives free pages back to the file system.
+    public static final String METHOD_TRIM_WEATHER = "trim_weather";
+    public static final String EXTRA_RECLAIM_SPACE = "reclaim_space";
+    public static final String RESULT_DELETED_ROWS = "deleted_rows";
+    public static final String RESULT_FREE_PAGES = "free_pages";
+
+    // Query parameter asking for a result held in plain arrays instead of a CursorWindow.  It
+    // suits the small, fixed projections the forecast list, widgets and wallpaper read; the
+    // provider ignores it for results too big to benefit.
+    public static final String PARAM_COMPACT = "compact";
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return normalizeDate(startDate, TimeZone.getDefault());
+    }
+
+    /**
+     * Same as {@link #normalizeDate(long)}, for callers normalizing many dates at once: the day
+     * boundaries come from the given zone, and nothing is allocated.  This matches what
+     * Time.setJulianDay(Time.getJulianDay(...)) returns, which is midnight in the default
+     * time zone on the day the date falls on there.
+     */
+    public static long normalizeDate(long startDate, TimeZone timeZone) {
+        int offset = timeZone.getOffset(startDate);
+        long localDate = startDate + offset;
+        long localMidnight = localDate - (((localDate % DAY_IN_MILLIS) + DAY_IN_MILLIS) % DAY_IN_MILLIS);
+        // On the days the clocks change, midnight and the date may be on different offsets.
+        return localMidnight - timeZone.getOffset(localMidnight - offset);
+    }
+
+    /**
+     * @return the URI with {@link #PARAM_COMPACT} set.
+     */
+    public static Uri buildCompactUri(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(PARAM_COMPACT, "1").build();
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,6 +119,10 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // How many days before today to keep this location's weather for.  Null means the
+        // app's default, which keeps yesterday.
+        public static final String COLUMN_RETENTION_DAYS = "retention_days";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -97,6 +139,10 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
+        // A view, to query like a table.  Underneath, descriptions are stored once each and
+        // the temperatures, humidity, pressure, wind and degrees as integer tenths.  The view
+        // reads those back as REALs rounded to one decimal place.
+        // Write weather through the provider.
         public static final String TABLE_NAME = "weather";
 
         // Column with the foreign key into the location table.
@@ -110,22 +156,28 @@ public class WeatherContract {
         // e.g "clear" vs "sky is clear".
         public static final String COLUMN_SHORT_DESC = "short_desc";
 
-        // Min and max temperatures for the day (stored as floats)
+        // Min and max temperatures for the day, stored as integer tenths, read back in degrees
+        // Celsius with one decimal
         public static final String COLUMN_MIN_TEMP = "min";
         public static final String COLUMN_MAX_TEMP = "max";
 
-        // Humidity is stored as a float representing percentage
+        // Humidity, stored as integer tenths, read back in percent with one decimal
         public static final String COLUMN_HUMIDITY = "humidity";
 
-        // Humidity is stored as a float representing percentage
+        // Pressure, stored as integer tenths, read back in hPa with one decimal
         public static final String COLUMN_PRESSURE = "pressure";
 
-        // Windspeed is stored as a float representing windspeed  mph
+        // Windspeed as provided by the API, stored as integer tenths, read back in m/s with one
+        // decimal
         public static final String COLUMN_WIND_SPEED = "wind";
 
-        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
+        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as integer
+        // tenths, read back in degrees with one decimal.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Index on the stored rows' (location_id, date), for finding a location's days.
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -165,4 +217,163 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the hourly table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        // Each row holds one location's samples for one day, packed by HourlySamples.
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The normalized date of the day the samples are for
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_SAMPLE_COUNT = "sample_count";
+        // The packed samples, a blob
+        public static final String COLUMN_SAMPLES = "samples";
+
+        // The location and date URIs return one row per sample, unpacked into these columns,
+        // with _ID numbering the rows.  Ask for a subset of them in the projection, or for all
+        // of them with a null one.
+        // When the sample is for, in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+
+        public static ContentValues buildSamplesValues(long locationId, HourlySamples samples) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_LOC_KEY, locationId);
+            values.put(COLUMN_DATE, samples.getDate());
+            values.put(COLUMN_SAMPLE_COUNT, samples.size());
+            values.put(COLUMN_SAMPLES, samples.encode());
+            return values;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithStartDate(String locationSetting, long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildHourlyLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+    }
+
+    /* Inner class that defines the table contents of the archive table */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        // Each row sums up a location's past weather over a week, a month or a year.  Days that
+        // leave the weather table are added to their week; weeks are later folded into their
+        // month, and months into their year, so older history takes fewer rows.
+        public static final String TABLE_NAME = "archive";
+
+        // Periods, coarsest last.
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+        public static final int PERIOD_YEAR = 3;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the PERIOD constants
+        public static final String COLUMN_PERIOD = "period";
+        // The normalized date the period starts on, in the default time zone
+        public static final String COLUMN_START_DATE = "start_date";
+        // How many days of weather went into the row, which may be fewer than in the period
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest and highest temperatures over the period, and the mean of the days' midpoints
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        // The weather id seen on the most days, and on how many.  Within a week this is exact;
+        // months and years pick between their weeks' and months' dominant ids, so it's the
+        // best estimate there.
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_WEATHER_DAYS = "weather_days";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildArchiveLocationWithPeriod(String locationSetting, int period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_PERIOD, Integer.toString(period)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the period the URI asks for, or 0 for all of them.
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String period = uri.getQueryParameter(COLUMN_PERIOD);
+            if (null != period && period.length() > 0)
+                return Integer.parseInt(period);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the columns of the provider's diagnostics, which aren't stored */
+    public static final class DiagnosticsEntry implements BaseColumns {
+
+        // A row per operation and kind of URI the provider has served since it started, or
+        // since the last delete on this URI.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DIAGNOSTICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_DIAGNOSTICS;
+
+        // query, insert, bulkInsert, update, delete, applyBatch or call
+        public static final String COLUMN_OPERATION = "operation";
+        // The URI pattern, such as "weather/*/#", or empty for applyBatch and call
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_CALLS = "calls";
+
+        // Latency percentiles and the slowest call, in microseconds.  The percentiles are
+        // rounded up to a power of two.
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P95_MICROS = "p95_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+
+        // Rows handed in, and rows returned or changed, over all the calls.  Queries only count
+        // the rows they return in debug builds.
+        public static final String COLUMN_ROWS_IN = "rows_in";
+        public static final String COLUMN_ROWS_OUT = "rows_out";
+
+        // How many calls ran their own transaction, and the mean time spent in it
+        public static final String COLUMN_TRANSACTIONS = "transactions";
+        public static final String COLUMN_TRANSACTION_MICROS = "transaction_us";
+
+        // The calling packages, with how many calls each made, e.g. "com.example=12"
+        public static final String COLUMN_CALLERS = "callers";
+    }
 }
@@ -15,10 +15,18 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.provider.BaseColumns;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,17 +35,221 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add the
+    // step from the previous version to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 7;
+
+    // The first version created with incremental auto-vacuum.
+    static final int AUTO_VACUUM_VERSION = 4;
+
+    // PRAGMA auto_vacuum value that allows incremental_vacuum.
+    static final long AUTO_VACUUM_INCREMENTAL = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    /**
+     * How the database connection is tuned.  The defaults come from resources, so they can be
+     * changed per API level or device class.
+     */
+    public static final class Pragmas {
+        // Lets readers carry on while the sync holds a write transaction.
+        final boolean writeAheadLogging;
+        // OFF, NORMAL or FULL
+        final String synchronous;
+        final int cacheSizeKb;
+        // DEFAULT, FILE or MEMORY
+        final String tempStore;
+
+        public Pragmas(boolean writeAheadLogging, String synchronous, int cacheSizeKb,
+                       String tempStore) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKb = cacheSizeKb;
+            this.tempStore = tempStore;
+        }
+
+        static Pragmas fromResources(Context context) {
+            Resources resources = context.getResources();
+            return new Pragmas(resources.getBoolean(R.bool.db_write_ahead_logging),
+                    resources.getString(R.string.db_synchronous),
+                    resources.getInteger(R.integer.db_cache_size_kb),
+                    resources.getString(R.string.db_temp_store));
+        }
+    }
+
+    // Each distinct short description, once.  See WeatherStorage.
+    static final String SQL_CREATE_DESCRIPTION_TABLE = "CREATE TABLE " +
+            WeatherStorage.DESCRIPTION_TABLE_NAME + " (" +
+            BaseColumns._ID + " INTEGER PRIMARY KEY," +
+            WeatherStorage.COLUMN_DESCRIPTION + " TEXT UNIQUE NOT NULL);";
+
+    // The stored weather rows, which the weather view decodes.
+    static final String SQL_CREATE_WEATHER_ROWS_TABLE = "CREATE TABLE " +
+            WeatherStorage.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherStorage.COLUMN_DESC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            // Tenths, as integers
+            WeatherStorage.COLUMN_MIN_TENTHS + " INTEGER NOT NULL, " +
+            WeatherStorage.COLUMN_MAX_TENTHS + " INTEGER NOT NULL, " +
+            WeatherStorage.COLUMN_HUMIDITY_TENTHS + " INTEGER NOT NULL, " +
+            WeatherStorage.COLUMN_PRESSURE_TENTHS + " INTEGER NOT NULL, " +
+            WeatherStorage.COLUMN_WIND_SPEED_TENTHS + " INTEGER NOT NULL, " +
+            WeatherStorage.COLUMN_DEGREES_TENTHS + " INTEGER NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " FOREIGN KEY (" + WeatherStorage.COLUMN_DESC_KEY + ") REFERENCES " +
+            WeatherStorage.DESCRIPTION_TABLE_NAME + " (" + BaseColumns._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // The UNIQUE constraint on the weather rows gives us an index that leads with the date,
+    // which is no help when looking up a location's forecast.  The provider's queries find the
+    // location first and then its days, so index them in that order.
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherStorage.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // One row per location and day, holding all of the day's samples.  Row per sample would
+    // multiply the rows, and the index over them, by the number of samples in a day.
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_SAMPLES + " BLOB NOT NULL, " +
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            // Leads with the location, so this is also the index the queries use.
+            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_WEATHER_DAYS + " INTEGER NOT NULL, " +
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            // One row per period, found by location first like the other tables.
+            " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_PERIOD + ", " +
+            ArchiveEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+    // The weather table of the contract.  It reads from the one table, looking each row's
+    // description up by its key, so SQLite flattens it into the queries that read it and they
+    // plan as they did on a plain table, still using the index above.
+    static final String SQL_CREATE_WEATHER_VIEW;
+
+    static {
+        StringBuilder sql = new StringBuilder("CREATE VIEW ").append(WeatherEntry.TABLE_NAME)
+                .append(" AS SELECT ")
+                .append(WeatherEntry._ID).append(", ")
+                .append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(WeatherEntry.COLUMN_DATE).append(", ")
+                .append("(SELECT ").append(WeatherStorage.COLUMN_DESCRIPTION)
+                .append(" FROM ").append(WeatherStorage.DESCRIPTION_TABLE_NAME)
+                .append(" WHERE ").append(WeatherStorage.DESCRIPTION_TABLE_NAME).append('.')
+                .append(BaseColumns._ID).append(" = ").append(WeatherStorage.COLUMN_DESC_KEY)
+                .append(") AS ").append(WeatherEntry.COLUMN_SHORT_DESC).append(", ")
+                .append(WeatherEntry.COLUMN_WEATHER_ID);
+        for (int i = 0; i < WeatherStorage.FIXED_POINT_COLUMNS.length; i++) {
+            sql.append(", ")
+                    .append(WeatherStorage.fromFixedPoint(
+                            WeatherStorage.FIXED_POINT_STORAGE_COLUMNS[i]))
+                    .append(" AS ").append(WeatherStorage.FIXED_POINT_COLUMNS[i]);
+        }
+        SQL_CREATE_WEATHER_VIEW = sql.append(" FROM ").append(WeatherStorage.TABLE_NAME)
+                .append(';').toString();
+    }
+
+    private final Pragmas mPragmas;
+    // Whether the database was just created or upgraded to AUTO_VACUUM_VERSION, and so may
+    // still need the VACUUM that switches auto-vacuum on.
+    private boolean mApplyAutoVacuum;
+
     public WeatherDbHelper(Context context) {
+        this(context, Pragmas.fromResources(context));
+    }
+
+    public WeatherDbHelper(Context context, Pragmas pragmas) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mPragmas = pragmas;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(pragmas.writeAheadLogging && isWalSupported());
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't do this for us.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && mPragmas.writeAheadLogging && isWalSupported() && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+        // These only apply to the connection they run on.  With write-ahead logging the
+        // framework may open more connections for readers, which keep SQLite's defaults; the
+        // writes are what we need to tune.
+        db.execSQL("PRAGMA synchronous = " + mPragmas.synchronous);
+        // A negative cache size is in KB rather than pages.
+        db.execSQL("PRAGMA cache_size = " + (-mPragmas.cacheSizeKb));
+        db.execSQL("PRAGMA temp_store = " + mPragmas.tempStore);
+
+        if (mApplyAutoVacuum) {
+            mApplyAutoVacuum = false;
+            applyAutoVacuum(db);
+        }
+    }
+
+    /**
+     * Switches the file to incremental auto-vacuum, so WeatherRetention can hand freed pages back
+     * a few at a time.  The mode only takes effect once the file has no tables or has been
+     * rebuilt by a VACUUM.  The framework creates its android_metadata table before onCreate, and
+     * a VACUUM can't run inside onCreate's or onUpgrade's transaction, so it happens here, once:
+     * on a new database it's a few empty pages.  On a database upgraded across
+     * AUTO_VACUUM_VERSION it rewrites the whole file, and the first open waits for that; it is
+     * the only full rewrite the file gets.
+     */
+    private static void applyAutoVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    private static boolean isWalSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // Before any of our tables; onOpen finishes the job.
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        mApplyAutoVacuum = true;
+
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -45,54 +257,39 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER" +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_DESCRIPTION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_ROWS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_VIEW);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // Keep what we have: an empty cache means an empty forecast list and a full sync for
+        // every user right after an update.
+        if (WeatherDbMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+            if (oldVersion < AUTO_VACUUM_VERSION) {
+                mApplyAutoVacuum = true;
+            }
+            return;
+        }
+        // Databases from before the migrations are only a cache for online data, so their
+        // upgrade policy is to simply to discard the data and start over
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        // Versions this old had a weather table rather than the view.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherStorage.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherStorage.DESCRIPTION_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The steps that bring an older weather database up to the current schema without losing its
+ * rows.
+ *
+ * To change the schema, bump WeatherDbHelper.DATABASE_VERSION, make onCreate build the new
+ * schema, and add a step here that turns the previous version into it.  Steps run in order
+ * inside the upgrade transaction, so a failed step leaves the database as it was.
+ */
+class WeatherDbMigrations {
+
+    /**
+     * One step of the schema's history, from the version before it to its own.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // The oldest version there is a step from.  Anything older is rebuilt from scratch.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // MIGRATIONS[i] upgrades version OLDEST_MIGRATABLE_VERSION + i by one.  Each step spells out
+    // its SQL rather than using WeatherDbHelper's or the contract's constants: those describe the
+    // current schema, and a step has to keep doing what it did when its version shipped.
+    private static final Migration[] MIGRATIONS = new Migration[] {
+            // 2 -> 3: index the weather by location and then date.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // On the weather table, as it was until version 7.
+                    db.execSQL("CREATE INDEX weather_location_date ON weather (location_id, date)");
+                }
+            },
+            // 3 -> 4: let each location set how long its past weather is kept, and ask for
+            // incremental auto-vacuum.  The VACUUM that rebuilds the file with it can't run in
+            // the upgrade's transaction, so WeatherDbHelper runs it once the database is open.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE location ADD COLUMN retention_days INTEGER");
+                    db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                }
+            },
+            // 4 -> 5: hourly forecasts, packed a day to a row.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE hourly ("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + "location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, "
+                            + "sample_count INTEGER NOT NULL, "
+                            + "samples BLOB NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + " UNIQUE (location_id, date) ON CONFLICT REPLACE);");
+                }
+            },
+            // 5 -> 6: weekly, monthly and yearly summaries of past weather.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE archive ("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + "location_id INTEGER NOT NULL, "
+                            + "period INTEGER NOT NULL, "
+                            + "start_date INTEGER NOT NULL, "
+                            + "day_count INTEGER NOT NULL, "
+                            + "min REAL NOT NULL, "
+                            + "max REAL NOT NULL, "
+                            + "mean REAL NOT NULL, "
+                            + "weather_id INTEGER NOT NULL, "
+                            + "weather_days INTEGER NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + " UNIQUE (location_id, period, start_date) ON CONFLICT REPLACE);");
+                }
+            },
+            // 6 -> 7: weather rows with a description dictionary and fixed-point values, read
+            // through a view with the old table's name and columns.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE weather_description ("
+                            + "_id INTEGER PRIMARY KEY,"
+                            + "short_desc TEXT UNIQUE NOT NULL);");
+                    db.execSQL("CREATE TABLE weather_rows ("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + "location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, "
+                            + "desc_id INTEGER NOT NULL, "
+                            + "weather_id INTEGER NOT NULL,"
+                            + "min_tenths INTEGER NOT NULL, "
+                            + "max_tenths INTEGER NOT NULL, "
+                            + "humidity_tenths INTEGER NOT NULL, "
+                            + "pressure_tenths INTEGER NOT NULL, "
+                            + "wind_tenths INTEGER NOT NULL, "
+                            + "degrees_tenths INTEGER NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + " FOREIGN KEY (desc_id) REFERENCES weather_description (_id), "
+                            + " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+                    db.execSQL("INSERT INTO weather_description (short_desc) "
+                            + "SELECT DISTINCT short_desc FROM weather");
+
+                    // Row IDs are kept, so URIs handed out for rows still find them.
+                    db.execSQL("INSERT INTO weather_rows (_id, location_id, date, desc_id, "
+                            + "weather_id, min_tenths, max_tenths, humidity_tenths, "
+                            + "pressure_tenths, wind_tenths, degrees_tenths) "
+                            + "SELECT w._id, w.location_id, w.date, d._id, w.weather_id, "
+                            + roundTenths("w.min") + ", " + roundTenths("w.max") + ", "
+                            + roundTenths("w.humidity") + ", " + roundTenths("w.pressure") + ", "
+                            + roundTenths("w.wind") + ", " + roundTenths("w.degrees")
+                            + " FROM weather AS w INNER JOIN weather_description AS d "
+                            + "ON w.short_desc = d.short_desc");
+
+                    // Takes its index with it, which is then made again on the new rows.
+                    db.execSQL("DROP TABLE weather");
+                    db.execSQL("CREATE INDEX weather_location_date "
+                            + "ON weather_rows (location_id, date);");
+                    db.execSQL("CREATE VIEW weather AS SELECT _id, location_id, date, "
+                            + "(SELECT short_desc FROM weather_description "
+                            + "WHERE weather_description._id = desc_id) AS short_desc, "
+                            + "weather_id, "
+                            + "min_tenths / 10.0 AS min, "
+                            + "max_tenths / 10.0 AS max, "
+                            + "humidity_tenths / 10.0 AS humidity, "
+                            + "pressure_tenths / 10.0 AS pressure, "
+                            + "wind_tenths / 10.0 AS wind, "
+                            + "degrees_tenths / 10.0 AS degrees "
+                            + "FROM weather_rows;");
+                }
+            }
+    };
+
+    /**
+     * @return SQL for the column in tenths, rounded half up like the Math.round in
+     * WeatherStorage.toFixedPoint: floor(x * 10 + 0.5).  CAST truncates towards zero, which is
+     * one above the floor for negative values, so one is taken off wherever the cast came out
+     * above the value.
+     */
+    private static String roundTenths(String column) {
+        String shifted = column + " * 10 + 0.5";
+        return "CAST(" + shifted + " AS INTEGER) - (" + shifted
+                + " < CAST(" + shifted + " AS INTEGER))";
+    }
+
+    /**
+     * @return whether there are steps for every version from oldVersion to newVersion.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        return oldVersion >= OLDEST_MIGRATABLE_VERSION
+                && oldVersion <= newVersion
+                && newVersion <= OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length;
+    }
+
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalArgumentException(
+                    "No migration from version " + oldVersion + " to " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION].migrate(db);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Inserts weather rows through one precompiled INSERT, for bulkInsert.
+ *
+ * db.insert builds and compiles a new statement for every row.  Here the statement is compiled
+ * once, each row's values are encoded as WeatherStorage keeps them and bound straight into it,
+ * and the date is normalized with plain arithmetic.  Description IDs are remembered for the
+ * inserter's life, so a forecast looks each one up once.  Rows that don't have exactly the
+ * columns the sync writes fall back to db.insert.  Use one inserter per transaction, and close
+ * it before ending the transaction.
+ */
+class WeatherInserter {
+    private static final String LOG_TAG = WeatherInserter.class.getSimpleName();
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // Where each of COLUMNS is stored.
+    private static final String[] STORAGE_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherStorage.COLUMN_DESC_KEY,
+            WeatherStorage.COLUMN_MIN_TENTHS,
+            WeatherStorage.COLUMN_MAX_TENTHS,
+            WeatherStorage.COLUMN_HUMIDITY_TENTHS,
+            WeatherStorage.COLUMN_PRESSURE_TENTHS,
+            WeatherStorage.COLUMN_WIND_SPEED_TENTHS,
+            WeatherStorage.COLUMN_DEGREES_TENTHS
+    };
+
+    // COLUMNS from here on hold fixed-point values.
+    private static final int FIRST_FIXED_POINT = 4;
+
+    private static final String INSERT_SQL;
+
+    static {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherStorage.TABLE_NAME).append(" (");
+        StringBuilder bindings = new StringBuilder();
+        for (int i = 0; i < STORAGE_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+                bindings.append(',');
+            }
+            sql.append(STORAGE_COLUMNS[i]);
+            bindings.append('?');
+        }
+        INSERT_SQL = sql.append(") VALUES (").append(bindings).append(')').toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mStatement;
+    // Looked up once: TimeZone.getDefault() returns a new copy every time.
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+    private final Map<String, Long> mDescriptionIds = new HashMap<String, Long>();
+
+    WeatherInserter(SQLiteDatabase db) {
+        mDb = db;
+        mStatement = db.compileStatement(INSERT_SQL);
+    }
+
+    /**
+     * @return the row ID of the new row, or -1 if it couldn't be inserted.
+     */
+    long insert(ContentValues values) {
+        if (!hasExactColumns(values)) {
+            if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                        values.getAsLong(WeatherEntry.COLUMN_DATE), mTimeZone));
+            }
+            return mDb.insert(WeatherStorage.TABLE_NAME, null,
+                    WeatherStorage.encode(mDb, values, mDescriptionIds));
+        }
+
+        mStatement.clearBindings();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            int index = i + 1;
+            Object value = values.get(COLUMNS[i]);
+            if (value == null) {
+                mStatement.bindNull(index);
+            } else if (i == 1) {
+                // COLUMN_DATE
+                mStatement.bindLong(index, WeatherContract.normalizeDate(
+                        ((Number) value).longValue(), mTimeZone));
+            } else if (i == 3) {
+                // COLUMN_SHORT_DESC
+                mStatement.bindLong(index, WeatherStorage.getDescriptionId(
+                        mDb, value.toString(), mDescriptionIds));
+            } else if (i >= FIRST_FIXED_POINT) {
+                Double number = values.getAsDouble(COLUMNS[i]);
+                if (number == null) {
+                    // Not a number, so the NOT NULL constraint turns the row down.
+                    mStatement.bindNull(index);
+                } else {
+                    mStatement.bindLong(index, WeatherStorage.toFixedPoint(number));
+                }
+            } else if (value instanceof Double || value instanceof Float) {
+                mStatement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                mStatement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                mStatement.bindBlob(index, (byte[]) value);
+            } else {
+                mStatement.bindString(index, value.toString());
+            }
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // Same as db.insert: report the row as not inserted rather than failing the batch.
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    void close() {
+        mStatement.close();
+    }
+
+    private static boolean hasExactColumns(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
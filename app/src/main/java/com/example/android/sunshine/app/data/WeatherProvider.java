@@ -17,23 +17,57 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final ProviderStats mStats = new ProviderStats();
+
+    // The batch being applied on the calling thread, if any.  Binder threads can apply batches
+    // at the same time, so each keeps its own.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    // Today's row of the preferred location is read by the notification, the widgets, the
+    // wearable and Muzei, often right after each other.  Static so the counters can be read
+    // from outside; there is one provider, and one database, per process.
+    private static final DayRowCache sDayRowCache = new DayRowCache();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+    static final int HOURLY_WITH_LOCATION_AND_DATE = 402;
+    static final int ARCHIVE = 500;
+    static final int ARCHIVE_WITH_LOCATION = 501;
+    static final int DIAGNOSTICS = 900;
+
+    // The most rows a PARAM_COMPACT query is copied out of its CursorWindow for.  A forecast is
+    // two weeks; a result much bigger than that is better left in the window.
+    static final int MAX_COMPACT_ROWS = 32;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +85,58 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    // The forecast list, detail view, widgets and wallpaper ask for the same few projections
+    // over and over, so their SQL is built once.
+    private static final QuerySqlCache sWeatherByLocationSettingSql = new QuerySqlCache(
+            sWeatherByLocationSettingQueryBuilder, WeatherContract.WeatherEntry.TABLE_NAME);
+
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+
+    static{
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+
+    static{
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //archive INNER JOIN location ON archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    private static final String[] HOURLY_BLOCK_PROJECTION = new String[] {
+            WeatherContract.HourlyEntry.TABLE_NAME + "." + WeatherContract.HourlyEntry.COLUMN_DATE,
+            WeatherContract.HourlyEntry.COLUMN_SAMPLES
+    };
+
+    // What the hourly location URIs unpack each sample into, when the projection is null.
+    private static final String[] HOURLY_SAMPLE_COLUMNS = new String[] {
+            WeatherContract.HourlyEntry._ID,
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID
+    };
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -73,41 +159,175 @@ public class WeatherProvider extends ContentProvider {
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
-        String selection;
+        String selection = getLocationSettingSelection(startDate);
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
             selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return sWeatherByLocationSettingSql.query(mOpenHelper.getReadableDatabase(),
+                WEATHER_WITH_LOCATION,
                 projection,
                 selection,
                 selectionArgs,
-                null,
-                null,
                 sortOrder
         );
     }
 
+    private static String getLocationSettingSelection(long startDate) {
+        return startDate == 0 ? sLocationSettingSelection : sLocationSettingWithStartDateSelection;
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        Cursor cached = sDayRowCache.get(locationSetting, date, projection);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = sDayRowCache.getGeneration();
+        return sDayRowCache.put(locationSetting, date, projection, generation,
+                sWeatherByLocationSettingSql.query(mOpenHelper.getReadableDatabase(),
+                        WEATHER_WITH_LOCATION_AND_DATE,
+                        projection,
+                        sLocationSettingAndDaySelection,
+                        new String[]{locationSetting, Long.toString(date)},
+                        sortOrder
+                ));
+    }
+
+    /**
+     * Reads the location's archived periods, oldest first unless the caller sorts them.
+     */
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        int period = WeatherContract.ArchiveEntry.getPeriodFromUri(uri);
+        String selection = sLocationSettingSelection;
+        String[] selectionArgs = new String[]{locationSetting};
+        if (period != 0) {
+            selection += "AND " + WeatherContract.ArchiveEntry.COLUMN_PERIOD + " = ?";
+            selectionArgs = new String[]{locationSetting, Integer.toString(period)};
+        }
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.ArchiveEntry.COLUMN_START_DATE + " ASC";
+        }
+        return sArchiveByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                selection,
+                selectionArgs,
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /**
+     * Reads the location's packed days and unpacks them into one row per sample, in time order.
+     * The sort order is ignored.
+     */
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, boolean singleDay) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        String selection = sLocationSettingSelection;
+        String[] selectionArgs = new String[]{locationSetting};
+        long date = singleDay
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        if (singleDay || date != 0) {
+            selection += "AND " + WeatherContract.HourlyEntry.TABLE_NAME + "."
+                    + WeatherContract.HourlyEntry.COLUMN_DATE + (singleDay ? " = ?" : " >= ?");
+            selectionArgs = new String[]{locationSetting, Long.toString(date)};
+        }
+
+        String[] columns = projection != null ? projection : HOURLY_SAMPLE_COLUMNS;
+        Cursor blocks = sHourlyByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                HOURLY_BLOCK_PROJECTION,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                WeatherContract.HourlyEntry.TABLE_NAME + "."
+                        + WeatherContract.HourlyEntry.COLUMN_DATE + " ASC");
+        try {
+            return unpackHourly(blocks, columns);
+        } finally {
+            blocks.close();
+        }
+    }
+
+    static Cursor unpackHourly(Cursor blocks, String[] columns) {
+        MatrixCursor samplesCursor = new MatrixCursor(columns);
+        Object[] row = new Object[columns.length];
+        long id = 0;
+        while (blocks.moveToNext()) {
+            HourlySamples samples = HourlySamples.decode(blocks.getLong(0), blocks.getBlob(1));
+            for (int i = 0; i < samples.size(); i++) {
+                id++;
+                for (int column = 0; column < columns.length; column++) {
+                    row[column] = getSampleValue(samples, i, id, columns[column]);
+                }
+                samplesCursor.addRow(row);
+            }
+        }
+        return samplesCursor;
+    }
+
+    private static Object getSampleValue(HourlySamples samples, int i, long id, String column) {
+        switch (column) {
+            case WeatherContract.HourlyEntry._ID:
+                return id;
+            case WeatherContract.HourlyEntry.COLUMN_TIME:
+                return samples.getTime(i);
+            case WeatherContract.HourlyEntry.COLUMN_TEMP:
+                return samples.getTemperature(i);
+            case WeatherContract.HourlyEntry.COLUMN_HUMIDITY:
+                return samples.getHumidity(i);
+            case WeatherContract.HourlyEntry.COLUMN_PRESSURE:
+                return samples.getPressure(i);
+            case WeatherContract.HourlyEntry.COLUMN_WIND_SPEED:
+                return samples.getWindSpeed(i);
+            case WeatherContract.HourlyEntry.COLUMN_DEGREES:
+                return samples.getDegrees(i);
+            case WeatherContract.HourlyEntry.COLUMN_WEATHER_ID:
+                return samples.getWeatherId(i);
+            default:
+                throw new IllegalArgumentException("No hourly column " + column);
+        }
+    }
+
+    /**
+     * @return the SELECT that a query for the URI runs, with ? in place of its arguments, so the
+     * tests can check its query plan.  For the plain weather and location URIs the selection is
+     * the caller's.
+     */
+    static String buildQuerySql(Uri uri, String[] projection, String selection,
+                                String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return sWeatherByLocationSettingSql.getSql(WEATHER_WITH_LOCATION_AND_DATE,
+                        projection, sLocationSettingAndDaySelection, sortOrder);
+            case WEATHER_WITH_LOCATION:
+                return sWeatherByLocationSettingSql.getSql(WEATHER_WITH_LOCATION, projection,
+                        getLocationSettingSelection(
+                                WeatherContract.WeatherEntry.getStartDateFromUri(uri)),
+                        sortOrder);
+            case WEATHER:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.WeatherEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +350,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/#", HOURLY_WITH_LOCATION_AND_DATE);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
         return matcher;
     }
 
@@ -140,6 +369,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        sDayRowCache.clear();
+        LocationRegistry.invalidate();
         return true;
     }
 
@@ -164,6 +395,15 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case DIAGNOSTICS:
+                return WeatherContract.DiagnosticsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,8 +414,13 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
+            // "diagnostics".  Reading the stats isn't counted in them.
+            case DIAGNOSTICS:
+                return mStats.toCursor(getContext().getPackageManager());
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -185,6 +430,9 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                if (uri.getQueryParameter(WeatherContract.PARAM_COMPACT) != null) {
+                    retCursor = ColumnarCursor.compact(retCursor, MAX_COMPACT_ROWS);
+                }
                 break;
             }
             // "weather"
@@ -213,11 +461,56 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly/*/*"
+            case HOURLY_WITH_LOCATION_AND_DATE: {
+                retCursor = getHourlyByLocationSetting(uri, projection, true);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, false);
+                break;
+            }
+            // "hourly", the packed rows as they are stored
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Counting runs a SQLite query's first step here, and fills a window even for callers
+        // that only read a row or two, so release builds leave it to the caller.
+        int rowsOut = ProviderStats.COUNT_QUERY_ROWS ? retCursor.getCount() : 0;
+        recordStats(ProviderStats.OP_QUERY, match, start, 0, rowsOut, 0);
         return retCursor;
     }
 
@@ -226,58 +519,142 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final ChangeAggregator changes = beginChanges();
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                Batch batch = mBatch.get();
+                long _id;
+                if (batch != null) {
+                    // A batch inserts many days; compile the INSERT once for all of them.
+                    _id = batch.getWeatherInserter(db).insert(values);
+                } else {
+                    normalizeDate(values);
+                    _id = WeatherStorage.insert(db, values);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.weatherChanged(values);
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                long _id = insertLocation(db, values, changes);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(WeatherContract.HourlyEntry.CONTENT_URI, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.hourlyChanged(values);
+                break;
+            }
+            case ARCHIVE: {
+                long _id = db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(WeatherContract.ArchiveEntry.CONTENT_URI, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.archiveChanged(values);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        endChanges(db, changes);
+        recordStats(ProviderStats.OP_INSERT, match, start, 1, 1, 0);
         return returnUri;
     }
 
+    /**
+     * Inserts the location unless its setting is already stored, and either way returns the
+     * setting's row ID.  Both steps run in one transaction, so two syncs adding the same
+     * location at once end up with the one row.
+     */
+    private static long insertLocation(SQLiteDatabase db, ContentValues values,
+                                       ChangeAggregator changes) {
+        db.beginTransaction();
+        try {
+            long _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    values, SQLiteDatabase.CONFLICT_IGNORE);
+            if (_id != -1) {
+                changes.locationChanged(_id);
+            } else {
+                String setting = values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (setting != null) {
+                    _id = DatabaseUtils.longForQuery(db, "SELECT "
+                                    + WeatherContract.LocationEntry._ID + " FROM "
+                                    + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                            new String[]{setting});
+                }
+            }
+            db.setTransactionSuccessful();
+            return _id;
+        } catch (SQLiteDoneException e) {
+            // Ignored for a reason other than the setting, e.g. a NOT NULL column.
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        if (match == DIAGNOSTICS) {
+            // Starts the counts over, e.g. between benchmark runs.
+            return mStats.reset();
+        }
+        final ChangeAggregator changes = beginChanges();
+        if (match == WEATHER) {
+            // Before the null selection is replaced: deleting every row can't be narrowed.
+            changes.weatherChanging(db, selection, selectionArgs);
+        }
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = WeatherStorage.delete(db, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                changes.allLocationsChanged();
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                changes.allHourlyChanged();
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                changes.allArchiveChanged();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            endChanges(db, changes);
         }
+        recordStats(ProviderStats.OP_DELETE, match, start, 0, rowsDeleted, 0);
         return rowsDeleted;
     }
 
@@ -292,56 +669,289 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final ChangeAggregator changes = beginChanges();
         int rowsUpdated;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // The rows move, so both where they were and where they go change.
+                    changes.allWeatherChanged();
+                } else {
+                    changes.weatherChanging(db, selection, selectionArgs);
+                }
+                rowsUpdated = WeatherStorage.update(db, values, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                changes.allLocationsChanged();
+                break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                changes.allHourlyChanged();
+                break;
+            case ARCHIVE:
+                rowsUpdated = db.update(WeatherContract.ArchiveEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                changes.allArchiveChanged();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            endChanges(db, changes);
         }
+        recordStats(ProviderStats.OP_UPDATE, match, start, 0, rowsUpdated, 0);
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long transactionStart = System.nanoTime();
         switch (match) {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                ChangeAggregator changes = beginChanges();
+                // One compiled INSERT for the whole batch, instead of one per row.
+                WeatherInserter inserter = new WeatherInserter(db);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = inserter.insert(value);
                         if (_id != -1) {
                             returnCount++;
+                            changes.weatherChanged(value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    inserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                long transactionNanos = System.nanoTime() - transactionStart;
+                endChanges(db, changes);
+                recordStats(ProviderStats.OP_BULK_INSERT, match, start, values.length,
+                        returnCount, transactionNanos);
                 return returnCount;
+            case HOURLY: {
+                db.beginTransaction();
+                int hourlyCount = 0;
+                ChangeAggregator hourlyChanges = beginChanges();
+                try {
+                    for (ContentValues value : values) {
+                        if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
+                            hourlyCount++;
+                            hourlyChanges.hourlyChanged(value);
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                long hourlyTransactionNanos = System.nanoTime() - transactionStart;
+                endChanges(db, hourlyChanges);
+                recordStats(ProviderStats.OP_BULK_INSERT, match, start, values.length,
+                        hourlyCount, hourlyTransactionNanos);
+                return hourlyCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the whole batch in one transaction, so a sync's writes commit together with a
+     * single fsync.  Observers are told about what changed once, after the commit, instead of
+     * once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final long start = System.nanoTime();
+        ContentProviderResult[] results;
+        beginBatch();
+        try {
+            results = super.applyBatch(operations);
+            setBatchSuccessful();
+        } finally {
+            endBatch();
+        }
+        // The whole batch is one transaction.
+        recordStats(ProviderStats.OP_APPLY_BATCH, -1, start, operations.size(), results.length,
+                System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * Starts a transaction in which this thread's inserts, updates and deletes are notified
+     * together once it commits, as in applyBatch.  Use it like a database transaction:
+     *
+     * <pre>
+     *   beginBatch();
+     *   try {
+     *     ...
+     *     setBatchSuccessful();
+     *   } finally {
+     *     endBatch();
+     *   }
+     * </pre>
+     */
+    void beginBatch() {
+        mOpenHelper.getWritableDatabase().beginTransaction();
+        mBatch.set(new Batch());
+    }
+
+    void setBatchSuccessful() {
+        mOpenHelper.getWritableDatabase().setTransactionSuccessful();
+        mBatch.get().successful = true;
+    }
+
+    void endBatch() {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = mBatch.get();
+        mBatch.remove();
+        batch.close();
+        db.endTransaction();
+        if (batch.successful) {
+            publishChanges(db, batch.changes);
+        }
+    }
+
+    /**
+     * Handles {@link WeatherContract#METHOD_TRIM_WEATHER}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_TRIM_WEATHER.equals(method)) {
+            final long start = System.nanoTime();
+            boolean reclaimSpace = extras != null
+                    && extras.getBoolean(WeatherContract.EXTRA_RECLAIM_SPACE);
+            Bundle result = new WeatherRetention(this, mOpenHelper.getWritableDatabase(),
+                    getContext().getResources().getInteger(R.integer.weather_retention_days))
+                    .trim(System.currentTimeMillis(), reclaimSpace);
+            // Its deletes are counted too, each under its own URI.
+            recordStats(ProviderStats.OP_CALL, -1, start, 0,
+                    result.getInt(WeatherContract.RESULT_DELETED_ROWS), 0);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private void recordStats(int operation, int match, long startNanos, int rowsIn, int rowsOut,
+                             long transactionNanos) {
+        mStats.record(operation, match, startNanos, rowsIn, rowsOut, transactionNanos,
+                Binder.getCallingUid());
+    }
+
+    /**
+     * @return the URI pattern a UriMatcher code stands for, for the diagnostics.
+     */
+    static String getUriName(int match) {
+        switch (match) {
+            case WEATHER:
+                return WeatherContract.PATH_WEATHER;
+            case WEATHER_WITH_LOCATION:
+                return WeatherContract.PATH_WEATHER + "/*";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.PATH_WEATHER + "/*/#";
+            case LOCATION:
+                return WeatherContract.PATH_LOCATION;
+            case HOURLY:
+                return WeatherContract.PATH_HOURLY;
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.PATH_HOURLY + "/*";
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.PATH_HOURLY + "/*/#";
+            case ARCHIVE:
+                return WeatherContract.PATH_ARCHIVE;
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.PATH_ARCHIVE + "/*";
+            case DIAGNOSTICS:
+                return WeatherContract.PATH_DIAGNOSTICS;
+            default:
+                // Calls that aren't made on a URI.
+                return "";
+        }
+    }
+
+    /**
+     * @return where a write should record what it changes: the running batch's aggregator, or a
+     * new one for just this call.
+     */
+    private ChangeAggregator beginChanges() {
+        Batch batch = mBatch.get();
+        return batch != null ? batch.changes : new ChangeAggregator();
+    }
+
+    /**
+     * Notifies a single call's changes.  A batch's are left for applyBatch to notify once it
+     * has committed.
+     */
+    private void endChanges(SQLiteDatabase db, ChangeAggregator changes) {
+        if (mBatch.get() == null) {
+            publishChanges(db, changes);
+        }
+    }
+
+    private void publishChanges(SQLiteDatabase db, ChangeAggregator changes) {
+        List<Uri> changedUris = changes.getChangedUris(db);
+        // Before the observers re-query.
+        sDayRowCache.invalidate(changedUris);
+        if (changedUris.contains(WeatherContract.LocationEntry.CONTENT_URI)) {
+            // Locations were updated or deleted, so their IDs may have moved.
+            LocationRegistry.invalidate();
+        }
+        for (Uri uri : changedUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return how many day lookups were answered without touching SQLite.
+     */
+    public static int getDayRowCacheHitCount() {
+        return sDayRowCache.getHitCount();
+    }
+
+    /**
+     * @return how many day lookups had to query SQLite.
+     */
+    public static int getDayRowCacheMissCount() {
+        return sDayRowCache.getMissCount();
+    }
+
+    /**
+     * What applyBatch collects while its operations run.
+     */
+    private static class Batch {
+        final ChangeAggregator changes = new ChangeAggregator();
+        boolean successful;
+        private WeatherInserter mWeatherInserter;
+
+        WeatherInserter getWeatherInserter(SQLiteDatabase db) {
+            if (mWeatherInserter == null) {
+                mWeatherInserter = new WeatherInserter(db);
+            }
+            return mWeatherInserter;
+        }
+
+        void close() {
+            if (mWeatherInserter != null) {
+                mWeatherInserter.close();
+            }
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -349,6 +959,8 @@ public class WeatherProvider extends ContentProvider {
     @TargetApi(11)
     public void shutdown() {
         mOpenHelper.close();
+        sDayRowCache.clear();
+        LocationRegistry.invalidate();
         super.shutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/**
+ * Keeps weather.db from growing: moves each location's weather into the {@link WeatherArchive}
+ * once it falls out of the location's retention window, and hands the freed pages back to the
+ * file system.
+ *
+ * Rows go in chunks, each its own short transaction through the provider, so readers and the
+ * next sync never wait behind one big delete.  Deleted pages only go on SQLite's free list;
+ * once that is a noticeable part of the file, and the caller says the device is idle or
+ * charging, an incremental vacuum gives some of them back.
+ */
+class WeatherRetention {
+    private static final String LOG_TAG = WeatherRetention.class.getSimpleName();
+
+    static final int DELETE_CHUNK_ROWS = 200;
+    // Reclaim space once the free list is at least this many pages and this share of the file.
+    static final int MIN_FREE_PAGES = 32;
+    static final int MIN_FREE_PERCENT = 10;
+    // At most this many pages per vacuum step, so one step stays short.
+    static final int VACUUM_STEP_PAGES = 256;
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final WeatherProvider mProvider;
+    private final SQLiteDatabase mDb;
+    private final int mDefaultRetentionDays;
+    private final WeatherArchive mArchive;
+
+    WeatherRetention(WeatherProvider provider, SQLiteDatabase db, int defaultRetentionDays) {
+        mProvider = provider;
+        mDb = db;
+        mDefaultRetentionDays = defaultRetentionDays;
+        mArchive = new WeatherArchive(provider, db, DELETE_CHUNK_ROWS);
+    }
+
+    /**
+     * @param now the current time; each location keeps its days from its window before today.
+     * @param reclaimSpace whether this is a good time to vacuum.
+     */
+    Bundle trim(long now, boolean reclaimSpace) {
+        int deleted = 0;
+        Cursor locations = mDb.query(LocationEntry.TABLE_NAME,
+                new String[] {LocationEntry._ID, LocationEntry.COLUMN_RETENTION_DAYS},
+                null, null, null, null, null);
+        try {
+            while (locations.moveToNext()) {
+                int retentionDays = locations.isNull(1)
+                        ? mDefaultRetentionDays : Math.max(locations.getInt(1), 0);
+                long firstKeptDate = WeatherContract.normalizeDate(
+                        now - retentionDays * DAY_IN_MILLIS);
+                deleted += deleteBefore(locations.getLong(0), firstKeptDate);
+                mArchive.rollUp(locations.getLong(0), now);
+            }
+        } finally {
+            locations.close();
+        }
+
+        long freePages = pragma("freelist_count");
+        if (reclaimSpace && shouldReclaim(freePages, pragma("page_count"))) {
+            reclaim();
+            freePages = pragma("freelist_count");
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.RESULT_DELETED_ROWS, deleted);
+        result.putLong(WeatherContract.RESULT_FREE_PAGES, freePages);
+        Log.d(LOG_TAG, "Trimmed " + deleted + " rows, " + freePages + " free pages");
+        return result;
+    }
+
+    static boolean shouldReclaim(long freePages, long pageCount) {
+        return freePages >= MIN_FREE_PAGES && freePages * 100 >= pageCount * MIN_FREE_PERCENT;
+    }
+
+    private int deleteBefore(long locationId, long firstKeptDate) {
+        int deleted = mArchive.archiveDaysBefore(locationId, firstKeptDate);
+        String[] args = new String[] {Long.toString(locationId), Long.toString(firstKeptDate)};
+        // Hourly samples aren't archived; the daily summaries cover their days.  A day of them
+        // is a single row, so these never need chunking.
+        deleted += mProvider.delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherContract.HourlyEntry.COLUMN_DATE + " < ?", args);
+        return deleted;
+    }
+
+    private void reclaim() {
+        if (pragma("auto_vacuum") != WeatherDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            // WeatherDbHelper switches it on when the database is created or upgraded.  Without
+            // it the only way to shrink the file is a full VACUUM, which is what this avoids.
+            Log.w(LOG_TAG, "Incremental vacuum is off; not reclaiming space");
+            return;
+        }
+        // The pragma returns no rows, but it only runs once the cursor is stepped.
+        Cursor cursor = mDb.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Nothing to read.
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long pragma(String name) {
+        return DatabaseUtils.longForQuery(mDb, "PRAGMA " + name, null);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.provider.BaseColumns;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Map;
+
+/**
+ * How weather rows are stored.  WeatherEntry.TABLE_NAME is a view with the contract's columns;
+ * underneath it each day is a row of small integers:
+ *
+ * - the short description is a key into a table holding each distinct description once.  The
+ *   API only has a few dozen of them, where a row would otherwise repeat the text.
+ * - the temperatures, humidity, pressure, wind speed and direction are kept in tenths.  The
+ *   app never shows more precision than that, and a value like 215 takes two bytes in SQLite
+ *   where a REAL with a fraction takes eight.
+ *
+ * Reads go through the view.  Writes can't, as a view isn't writable, so they come through here
+ * and have their values encoded first.
+ *
+ * Only toFixedPoint is public, for code outside the provider that compares fetched values with
+ * stored ones.
+ */
+public final class WeatherStorage {
+
+    static final String TABLE_NAME = "weather_rows";
+    static final String DESCRIPTION_TABLE_NAME = "weather_description";
+
+    // The description table's text column.  Its _ID is what the weather rows hold.
+    static final String COLUMN_DESCRIPTION = WeatherEntry.COLUMN_SHORT_DESC;
+
+    // The weather rows' columns that differ from the view's.  The rest have the view's names.
+    static final String COLUMN_DESC_KEY = "desc_id";
+    static final String COLUMN_MIN_TENTHS = "min_tenths";
+    static final String COLUMN_MAX_TENTHS = "max_tenths";
+    static final String COLUMN_HUMIDITY_TENTHS = "humidity_tenths";
+    static final String COLUMN_PRESSURE_TENTHS = "pressure_tenths";
+    static final String COLUMN_WIND_SPEED_TENTHS = "wind_tenths";
+    static final String COLUMN_DEGREES_TENTHS = "degrees_tenths";
+
+    // What the fixed-point columns are multiplied by.
+    static final int SCALE = 10;
+
+    // The view's fixed-point columns, and where each is stored.
+    static final String[] FIXED_POINT_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    static final String[] FIXED_POINT_STORAGE_COLUMNS = {
+            COLUMN_MIN_TENTHS,
+            COLUMN_MAX_TENTHS,
+            COLUMN_HUMIDITY_TENTHS,
+            COLUMN_PRESSURE_TENTHS,
+            COLUMN_WIND_SPEED_TENTHS,
+            COLUMN_DEGREES_TENTHS
+    };
+
+    private static final String DESCRIPTION_ID_SQL = "SELECT " + BaseColumns._ID + " FROM "
+            + DESCRIPTION_TABLE_NAME + " WHERE " + COLUMN_DESCRIPTION + " = ?";
+
+    private WeatherStorage() {
+    }
+
+    /**
+     * @return the value as it is stored, in tenths.
+     */
+    public static long toFixedPoint(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    /**
+     * @return the view's column as an expression over the stored one.
+     */
+    static String fromFixedPoint(String storedColumn) {
+        return storedColumn + " / " + SCALE + ".0";
+    }
+
+    /**
+     * @return the row ID of the new row, or -1 if it couldn't be inserted.
+     */
+    static long insert(SQLiteDatabase db, ContentValues values) {
+        return db.insert(TABLE_NAME, null, encode(db, values, null));
+    }
+
+    /**
+     * Updates the rows of the weather view that match the selection.
+     */
+    static int update(SQLiteDatabase db, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        return db.update(TABLE_NAME, encode(db, values, null), selectRows(selection),
+                selectionArgs);
+    }
+
+    /**
+     * Deletes the rows of the weather view that match the selection.
+     */
+    static int delete(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        return db.delete(TABLE_NAME, selectRows(selection), selectionArgs);
+    }
+
+    /**
+     * @return the values with the view's columns replaced by the stored ones.
+     * @param descriptionIds description IDs already looked up in this transaction, or null.
+     */
+    static ContentValues encode(SQLiteDatabase db, ContentValues values,
+                                Map<String, Long> descriptionIds) {
+        ContentValues encoded = new ContentValues(values);
+        if (values.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            encoded.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            String description = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            if (description != null) {
+                encoded.put(COLUMN_DESC_KEY, getDescriptionId(db, description, descriptionIds));
+            } else {
+                // Left for the NOT NULL constraint to turn down.
+                encoded.putNull(COLUMN_DESC_KEY);
+            }
+        }
+        for (int i = 0; i < FIXED_POINT_COLUMNS.length; i++) {
+            if (values.containsKey(FIXED_POINT_COLUMNS[i])) {
+                encoded.remove(FIXED_POINT_COLUMNS[i]);
+                Double value = values.getAsDouble(FIXED_POINT_COLUMNS[i]);
+                if (value != null) {
+                    encoded.put(FIXED_POINT_STORAGE_COLUMNS[i], toFixedPoint(value));
+                } else {
+                    encoded.putNull(FIXED_POINT_STORAGE_COLUMNS[i]);
+                }
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * @return the ID of the description, adding it to the description table if it's new.
+     * @param descriptionIds description IDs already looked up in this transaction, or null.
+     */
+    static long getDescriptionId(SQLiteDatabase db, String description,
+                                 Map<String, Long> descriptionIds) {
+        Long id = descriptionIds != null ? descriptionIds.get(description) : null;
+        if (id != null) {
+            return id;
+        }
+        String[] args = new String[] {description};
+        try {
+            id = DatabaseUtils.longForQuery(db, DESCRIPTION_ID_SQL, args);
+        } catch (SQLiteDoneException e) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DESCRIPTION, description);
+            // Another writer may add it first; either way it's there to look up afterwards.
+            db.insertWithOnConflict(DESCRIPTION_TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            id = DatabaseUtils.longForQuery(db, DESCRIPTION_ID_SQL, args);
+        }
+        if (descriptionIds != null) {
+            descriptionIds.put(description, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return a selection on the stored rows matching the given selection on the view, which
+     * may name any of the view's columns.
+     */
+    private static String selectRows(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return BaseColumns._ID + " IN (SELECT " + BaseColumns._ID + " FROM "
+                + WeatherEntry.TABLE_NAME + " WHERE " + selection + ")";
+    }
+}
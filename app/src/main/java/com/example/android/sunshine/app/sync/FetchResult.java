@@ -0,0 +1,104 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * The outcome of fetching one location's forecast, waiting to be committed with the rest of
+ * the sync.
+ */
+final class FetchResult {
+    final SyncLocation location;
+
+    // What to report as the location status if this is the preferred location.
+    @SunshineSyncAdapter.LocationStatus
+    final int locationStatus;
+
+    // Why the fetch failed, or FAILURE_NONE.
+    @SyncRetryPolicy.Failure
+    final int failure;
+
+    // The forecast to store, or null if there is nothing new for this location.
+    final ForecastCollector forecast;
+
+    // When the forecast was downloaded; its first day is the day it was fetched.
+    final long fetchedAt;
+
+    // The response body as it came over the wire and once decoded, and the time spent decoding
+    // it.  All 0 if no body was read.
+    final long wireBytes;
+    final long decodedBytes;
+    final long decodeNanos;
+
+    // The response to cache once the forecast is written, or null.
+    final ForecastResponseCache.Pending response;
+
+    private FetchResult(SyncLocation location, @SyncRetryPolicy.Failure int failure,
+                        ForecastCollector forecast, long fetchedAt) {
+        this(location, failure, forecast, fetchedAt, 0, 0, 0, null);
+    }
+
+    private FetchResult(SyncLocation location, @SyncRetryPolicy.Failure int failure,
+                        ForecastCollector forecast, long fetchedAt, long wireBytes,
+                        long decodedBytes, long decodeNanos,
+                        ForecastResponseCache.Pending response) {
+        this.location = location;
+        this.failure = failure;
+        this.locationStatus = toLocationStatus(failure);
+        this.forecast = forecast;
+        this.fetchedAt = fetchedAt;
+        this.wireBytes = wireBytes;
+        this.decodedBytes = decodedBytes;
+        this.decodeNanos = decodeNanos;
+        this.response = response;
+    }
+
+    /**
+     * @param forecast the forecast to store, or null if what we have is already current.
+     */
+    static FetchResult succeeded(SyncLocation location, ForecastCollector forecast,
+                                 long fetchedAt) {
+        return new FetchResult(location, SyncRetryPolicy.FAILURE_NONE, forecast, fetchedAt);
+    }
+
+    static FetchResult failed(SyncLocation location, @SyncRetryPolicy.Failure int failure) {
+        return new FetchResult(location, failure, null, 0);
+    }
+
+    /**
+     * A failed fetch that still has a forecast to store, e.g. one replayed from the cache.
+     */
+    static FetchResult failed(SyncLocation location, @SyncRetryPolicy.Failure int failure,
+                              FetchResult fallback) {
+        return new FetchResult(location, failure, fallback.forecast, fallback.fetchedAt);
+    }
+
+    /**
+     * @return this result, with what it took to read its response body.
+     */
+    FetchResult withTransfer(long wireBytes, long decodedBytes, long decodeNanos) {
+        return new FetchResult(location, failure, forecast, fetchedAt, wireBytes, decodedBytes,
+                decodeNanos, response);
+    }
+
+    /**
+     * @return this result, with the response to cache once its forecast has been written.
+     */
+    FetchResult withResponse(ForecastResponseCache.Pending response) {
+        return new FetchResult(location, failure, forecast, fetchedAt, wireBytes, decodedBytes,
+                decodeNanos, response);
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    private static int toLocationStatus(@SyncRetryPolicy.Failure int failure) {
+        switch (failure) {
+            case SyncRetryPolicy.FAILURE_NONE:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+            case SyncRetryPolicy.FAILURE_NOT_FOUND:
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            case SyncRetryPolicy.FAILURE_MALFORMED:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            case SyncRetryPolicy.FAILURE_NETWORK:
+            case SyncRetryPolicy.FAILURE_SERVER:
+            default:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
+}
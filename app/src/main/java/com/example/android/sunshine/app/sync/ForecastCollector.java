@@ -0,0 +1,46 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Vector;
+
+/**
+ * Collects the days handed out by {@link OwmForecastParser} as ContentValues ready for
+ * bulkInsert.  The location key and date are filled in once the location row is known, since the
+ * city may show up after the list in the response.
+ */
+class ForecastCollector implements OwmForecastParser.Handler {
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+    final Vector<ContentValues> cVVector;
+
+    ForecastCollector(int expectedDays) {
+        cVVector = new Vector<ContentValues>(expectedDays);
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        this.cityName = cityName;
+        this.cityLatitude = lat;
+        this.cityLongitude = lon;
+    }
+
+    @Override
+    public void onDay(OwmForecastParser.Day day) {
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+        cVVector.add(weatherValues);
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherStorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between the forecast a sync fetched for one location and what is already
+ * stored for it.
+ *
+ * Days we don't have yet become inserts.  Days we do have become updates of just the columns
+ * whose values changed, addressed by _ID, so unchanged rows keep their ids and nothing is
+ * replaced.  Days that are identical produce nothing at all.
+ */
+class ForecastDelta {
+
+    // Every column the sync writes for a day, apart from the location key and date.
+    private static final String[] VALUE_COLUMNS = new String[] {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // _ID and date, followed by VALUE_COLUMNS in the same order.  The value indices below must
+    // match VALUE_COLUMNS.
+    private static final String[] STORED_PROJECTION;
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_FIRST_VALUE = 2;
+    private static final int INDEX_WEATHER_ID = INDEX_FIRST_VALUE;
+    private static final int INDEX_MIN_TEMP = INDEX_FIRST_VALUE + 2;
+    private static final int INDEX_MAX_TEMP = INDEX_FIRST_VALUE + 3;
+
+    static {
+        STORED_PROJECTION = new String[VALUE_COLUMNS.length + INDEX_FIRST_VALUE];
+        STORED_PROJECTION[INDEX_ID] = WeatherEntry._ID;
+        STORED_PROJECTION[INDEX_DATE] = WeatherEntry.COLUMN_DATE;
+        System.arraycopy(VALUE_COLUMNS, 0, STORED_PROJECTION, INDEX_FIRST_VALUE,
+                VALUE_COLUMNS.length);
+    }
+
+    // Changes in the first few days are the ones worth syncing more often for.
+    private static final int NEAR_TERM_DAYS = 3;
+    // A temperature moving by at least this much, in degrees, counts as a noticeable change.
+    private static final double NOTICEABLE_TEMPERATURE_CHANGE = 2.0;
+
+    final List<ContentValues> inserts = new ArrayList<ContentValues>();
+    final ArrayList<ContentProviderOperation> updates = new ArrayList<ContentProviderOperation>();
+    int unchanged;
+    // Whether the weather or temperatures of the next few days changed noticeably.
+    boolean nearTermChanged;
+    // Whether a day we already had changed, or a gap was filled.  Days appended after the last
+    // stored one don't count: the forecast window moves on by a day every day.
+    boolean forecastChanged;
+
+    /**
+     * @param days the fetched days, with the location key and date already filled in.
+     */
+    static ForecastDelta compute(ContentResolver resolver, long locationId,
+                                 List<ContentValues> days) {
+        ForecastDelta delta = new ForecastDelta();
+        if (days.isEmpty()) {
+            return delta;
+        }
+
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues day : days) {
+            firstDate = Math.min(firstDate, normalizedDate(day));
+        }
+
+        // Fetched days by date; whatever is left once the stored rows are matched is new.
+        Map<Long, ContentValues> fetchedByDate = new HashMap<Long, ContentValues>(days.size() * 2);
+        for (ContentValues day : days) {
+            fetchedByDate.put(normalizedDate(day), day);
+        }
+
+        Cursor cursor = resolver.query(WeatherEntry.CONTENT_URI,
+                STORED_PROJECTION,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[] {Long.toString(locationId), Long.toString(firstDate)},
+                null);
+        long lastStoredDate = Long.MIN_VALUE;
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    lastStoredDate = Math.max(lastStoredDate, cursor.getLong(INDEX_DATE));
+                    ContentValues day = fetchedByDate.remove(cursor.getLong(INDEX_DATE));
+                    if (day == null) {
+                        continue;
+                    }
+                    if (cursor.getLong(INDEX_DATE) < firstDate + NEAR_TERM_DAYS * DateUtils.DAY_IN_MILLIS
+                            && isNoticeableChange(cursor, day)) {
+                        delta.nearTermChanged = true;
+                    }
+                    ContentValues changed = changedValues(cursor, day);
+                    if (changed.size() == 0) {
+                        delta.unchanged++;
+                    } else {
+                        delta.updates.add(ContentProviderOperation
+                                .newUpdate(WeatherEntry.CONTENT_URI)
+                                .withSelection(WeatherEntry._ID + " = ?",
+                                        new String[] {Long.toString(cursor.getLong(INDEX_ID))})
+                                .withValues(changed)
+                                .build());
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Keep the inserts in the order the days were fetched.
+        for (ContentValues day : days) {
+            long date = normalizedDate(day);
+            if (fetchedByDate.containsKey(date)) {
+                delta.inserts.add(day);
+                // With nothing stored from the first day on, every day is news.
+                if (date <= lastStoredDate || lastStoredDate == Long.MIN_VALUE) {
+                    delta.forecastChanged = true;
+                }
+            }
+        }
+        if (!delta.updates.isEmpty()) {
+            delta.forecastChanged = true;
+        }
+        return delta;
+    }
+
+    boolean isEmpty() {
+        return inserts.isEmpty() && updates.isEmpty();
+    }
+
+    private static long normalizedDate(ContentValues day) {
+        return WeatherContract.normalizeDate(day.getAsLong(WeatherEntry.COLUMN_DATE));
+    }
+
+    private static boolean isNoticeableChange(Cursor stored, ContentValues fetched) {
+        Integer weatherId = fetched.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        if (weatherId != null && weatherId != stored.getInt(INDEX_WEATHER_ID)) {
+            return true;
+        }
+        return isNoticeableChange(stored, INDEX_MIN_TEMP,
+                fetched.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP))
+                || isNoticeableChange(stored, INDEX_MAX_TEMP,
+                fetched.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+    }
+
+    private static boolean isNoticeableChange(Cursor stored, int index, Double temperature) {
+        return temperature != null
+                && Math.abs(temperature - stored.getDouble(index)) >= NOTICEABLE_TEMPERATURE_CHANGE;
+    }
+
+    /**
+     * @return the columns of the fetched day whose values differ from the stored row under the
+     * cursor.  Each column is read back as the type the sync writes it with, so numbers are
+     * compared as numbers.  Fractional values are stored in fixed point, so they are compared at
+     * the precision they are stored with: a fetched 12.34 is unchanged from a stored 12.3.
+     */
+    private static ContentValues changedValues(Cursor stored, ContentValues fetched) {
+        ContentValues changed = new ContentValues();
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            String column = VALUE_COLUMNS[i];
+            int index = INDEX_FIRST_VALUE + i;
+            Object value = fetched.get(column);
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof Integer || value instanceof Long) {
+                long fetchedValue = ((Number) value).longValue();
+                if (stored.isNull(index) || stored.getLong(index) != fetchedValue) {
+                    changed.put(column, fetchedValue);
+                }
+            } else if (value instanceof Number) {
+                double fetchedValue = ((Number) value).doubleValue();
+                if (stored.isNull(index) || WeatherStorage.toFixedPoint(stored.getDouble(index))
+                        != WeatherStorage.toFixedPoint(fetchedValue)) {
+                    changed.put(column, fetchedValue);
+                }
+            } else {
+                String fetchedValue = value.toString();
+                if (!fetchedValue.equals(stored.getString(index))) {
+                    changed.put(column, fetchedValue);
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Size-bounded, least-recently-used disk cache of raw forecast responses.
+ *
+ * Each entry is one file under the app's cache directory holding the validators the server sent
+ * (ETag and Last-Modified), the time the response was fetched, and the response body.  The
+ * validators let the sync send a conditional GET, and the body lets a cold start replay the last
+ * forecast without touching the network.
+ *
+ * Recency is tracked with the file modification time, which is bumped on every read, so the
+ * oldest files are the first to go when the cache grows past its limit.
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "forecast-responses";
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Bump this if the entry layout changes; older entries are then ignored and overwritten.
+    private static final int ENTRY_FORMAT_VERSION = 1;
+
+    // A 14 day forecast is a few KB, so this keeps well over a hundred locations around.
+    public static final long DEFAULT_MAX_BYTES = 512 * 1024;
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * What we know about a cached response, without its body.
+     */
+    public static final class Entry {
+        public final String etag;
+        public final String lastModified;
+        public final long fetchedAt;
+
+        Entry(String etag, String lastModified, long fetchedAt) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /**
+     * A response held back until the forecast parsed from it has been stored.  Saving its
+     * validators any earlier would let a failed write be followed by a 304, and the forecast
+     * would never be stored.
+     */
+    public final class Pending {
+        private final String mRequestKey;
+        private final String mEtag;
+        private final String mLastModified;
+        private final long mFetchedAt;
+        private final byte[] mBody;
+
+        private Pending(String requestKey, String etag, String lastModified, long fetchedAt,
+                        byte[] body) {
+            mRequestKey = requestKey;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mFetchedAt = fetchedAt;
+            mBody = body;
+        }
+
+        /**
+         * Stores the response, as {@link #put} would have.
+         */
+        public void commit() {
+            put(mRequestKey, mEtag, mLastModified, mFetchedAt, mBody, mBody.length);
+        }
+    }
+
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIR),
+                    DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    ForecastResponseCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the validators and fetch time for the request, or null if nothing is cached.
+     */
+    public synchronized Entry get(String requestKey) {
+        File file = entryFile(requestKey);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return readHeader(in);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Opens the cached body for the request and marks the entry as recently used.
+     *
+     * @return the body, or null if nothing is cached.  The caller must close it.
+     */
+    public synchronized InputStream openBody(String requestKey) {
+        File file = entryFile(requestKey);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (readHeader(in) == null) {
+                closeQuietly(in);
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return in;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry " + file, e);
+            closeQuietly(in);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Marks the entry as recently used, e.g. when the server answered 304 Not Modified.
+     */
+    public synchronized void touch(String requestKey) {
+        File file = entryFile(requestKey);
+        if (file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Stores a response body, replacing any previous entry for the request.  The entry is
+     * written to a temporary file first, so a failed write leaves the old one in place.
+     */
+    public synchronized void put(String requestKey, String etag, String lastModified,
+                                 long fetchedAt, byte[] body, int length) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        File tempFile = new File(mDirectory, keyToFileName(requestKey) + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(ENTRY_FORMAT_VERSION);
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+            out.writeLong(fetchedAt);
+            out.write(body, 0, length);
+            out.close();
+            out = null;
+
+            File file = entryFile(requestKey);
+            if (!tempFile.renameTo(file)) {
+                Log.w(LOG_TAG, "Unable to publish cache entry " + file);
+                tempFile.delete();
+                return;
+            }
+        } catch (IOException e) {
+            // Not being able to cache shouldn't fail the sync.
+            Log.w(LOG_TAG, "Unable to write cache entry " + tempFile, e);
+            closeQuietly(out);
+            tempFile.delete();
+            return;
+        }
+        trimToSize();
+    }
+
+    /**
+     * @return the response, with a copy of its body, ready to be stored by
+     * {@link Pending#commit()} once the forecast from it has been written.
+     */
+    public Pending prepare(String requestKey, String etag, String lastModified, long fetchedAt,
+                           byte[] body, int length) {
+        return new Pending(requestKey, etag, lastModified, fetchedAt,
+                Arrays.copyOf(body, length));
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size limit.
+     */
+    synchronized void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (size <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static Entry readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != ENTRY_FORMAT_VERSION) {
+            return null;
+        }
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        long fetchedAt = in.readLong();
+        return new Entry(etag.length() == 0 ? null : etag,
+                lastModified.length() == 0 ? null : lastModified,
+                fetchedAt);
+    }
+
+    private File entryFile(String requestKey) {
+        return new File(mDirectory, keyToFileName(requestKey) + ENTRY_SUFFIX);
+    }
+
+    // Request keys are URLs, so hash them into something that is safe as a file name.
+    private static String keyToFileName(String requestKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(requestKey.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(requestKey.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link WeatherSource} backed by the OpenWeatherMap daily forecast API.
+ *
+ * Requests are conditional whenever the {@link ForecastResponseCache} has validators for them,
+ * bodies are asked for gzipped and read into a per-thread {@link ResponseBodyReader}, and the
+ * response is parsed with {@link OwmForecastParser}.
+ */
+class OwmWeatherSource implements WeatherSource {
+    private static final String LOG_TAG = OwmWeatherSource.class.getSimpleName();
+
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // Each fetching thread keeps its own body buffer between syncs.
+    private static final ThreadLocal<ResponseBodyReader> sBodyReader =
+            new ThreadLocal<ResponseBodyReader>() {
+                @Override
+                protected ResponseBodyReader initialValue() {
+                    return new ResponseBodyReader();
+                }
+            };
+
+    private final Context mContext;
+    private final String mBaseUrl;
+
+    // Connections currently open, with the key of the location each is fetching, so cancel()
+    // can abort them from another thread.
+    private final Map<HttpURLConnection, String> mOpenConnections =
+            new HashMap<HttpURLConnection, String>();
+
+    public OwmWeatherSource(Context context) {
+        this(context, FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl where to send forecast requests instead of OWM, e.g. a local test server.
+     */
+    public OwmWeatherSource(Context context, String baseUrl) {
+        mContext = context.getApplicationContext();
+        mBaseUrl = baseUrl;
+    }
+
+    Uri buildForecastUri(SyncLocation location) {
+        String format = "json";
+        String units = "metric";
+
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(mBaseUrl).buildUpon();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (location.hasCoordinates) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(location.latitude))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(location.longitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, location.locationSetting);
+        }
+
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(SunshineSyncAdapter.NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * Downloads and parses the forecast for one location.  Nothing is written to the database
+     * here, so this is safe to run on the fetch pool.
+     */
+    @Override
+    public FetchResult fetch(SyncLocation location) {
+        ResponseBodyReader bodyReader = sBodyReader.get();
+        bodyReader.reset();
+        FetchResult result = fetch(location, bodyReader);
+        return result.withTransfer(bodyReader.getWireBytes(), bodyReader.getLength(),
+                bodyReader.getDecodeNanos());
+    }
+
+    private FetchResult fetch(SyncLocation location, ResponseBodyReader bodyReader) {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        FetchResult replayed = null;
+
+        try {
+            Uri builtUri = buildForecastUri(location);
+            URL url = new URL(builtUri.toString());
+
+            // Validators and the last body are kept per request, so a new location or unit
+            // setting never reuses another query's response.
+            String cacheKey = builtUri.toString();
+            ForecastResponseCache responseCache = ForecastResponseCache.getInstance(mContext);
+            ForecastResponseCache.Entry cached = responseCache.get(cacheKey);
+
+            // On a cold start the database may have nothing for this location even though we
+            // still have its last response on disk.  Replay that, and only trust the validators
+            // if the replay worked.
+            if (cached != null && !hasForecast(location.locationSetting)) {
+                replayed = replayCachedResponse(responseCache, cacheKey, cached, location);
+                if (replayed == null) {
+                    cached = null;
+                }
+            }
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            synchronized (mOpenConnections) {
+                mOpenConnections.put(urlConnection, location.key());
+            }
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            bodyReader.prepare(urlConnection);
+            if (cached != null) {
+                if (cached.etag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we stored last time is still current, so there's nothing to parse or write.
+                responseCache.touch(cacheKey);
+                Log.d(LOG_TAG, "Forecast not modified for " + location);
+                return replayed != null ? replayed : FetchResult.succeeded(location, null, 0);
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "HTTP " + responseCode + " fetching " + location);
+                @SyncRetryPolicy.Failure int failure =
+                        responseCode == HttpURLConnection.HTTP_NOT_FOUND
+                                ? SyncRetryPolicy.FAILURE_NOT_FOUND
+                                : SyncRetryPolicy.FAILURE_SERVER;
+                return failed(location, failure, replayed);
+            }
+
+            // Pull the whole (possibly gzipped) body into this thread's reusable buffer, then
+            // parse from there.  The same bytes go into the response cache once they have
+            // parsed into a forecast we can store, so they have to be kept until then.
+            long fetchedAt = System.currentTimeMillis();
+            if (bodyReader.read(urlConnection) == 0) {
+                // Stream was empty.  No point in parsing.
+                return failed(location, SyncRetryPolicy.FAILURE_SERVER, replayed);
+            }
+
+            ForecastCollector collector = new ForecastCollector(SunshineSyncAdapter.NUM_DAYS);
+            FetchResult result = toFetchResult(location,
+                    OwmForecastParser.parse(bodyReader.newInputStream(), collector),
+                    collector, fetchedAt);
+            if (result.forecast == null) {
+                // OWM answered with an error code.
+                return failed(location, result.failure, replayed);
+            }
+            // Only a forecast we can store is worth replaying later, and its validators are only
+            // saved once the sync has stored it.
+            return result.withResponse(responseCache.prepare(cacheKey,
+                    urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"),
+                    fetchedAt, bodyReader.getBuffer(), bodyReader.getLength()));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.  A replayed forecast is still worth keeping, though.
+            return failed(location, SyncRetryPolicy.FAILURE_NETWORK, replayed);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return failed(location, SyncRetryPolicy.FAILURE_MALFORMED, replayed);
+        } finally {
+            if (urlConnection != null) {
+                synchronized (mOpenConnections) {
+                    mOpenConnections.remove(urlConnection);
+                }
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    @Override
+    public void cancel(SyncLocation location) {
+        String key = location.key();
+        synchronized (mOpenConnections) {
+            // Closing the socket makes the blocked read on the fetching thread throw.
+            for (Map.Entry<HttpURLConnection, String> connection : mOpenConnections.entrySet()) {
+                if (key.equals(connection.getValue())) {
+                    connection.getKey().disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a failed result that still stores the forecast replayed from the response cache,
+     * if there is one.
+     */
+    private static FetchResult failed(SyncLocation location, @SyncRetryPolicy.Failure int failure,
+                                      FetchResult replayed) {
+        return replayed != null
+                ? FetchResult.failed(location, failure, replayed)
+                : FetchResult.failed(location, failure);
+    }
+
+    /**
+     * Turns the parsed response into a result, checking that it can be stored.
+     */
+    private static FetchResult toFetchResult(SyncLocation location, int messageCode,
+                                             ForecastCollector collector, long fetchedAt)
+            throws JSONException {
+        // do we have an error?
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return FetchResult.failed(location, SyncRetryPolicy.FAILURE_NOT_FOUND);
+            default:
+                return FetchResult.failed(location, SyncRetryPolicy.FAILURE_SERVER);
+        }
+
+        if (collector.cityName == null) {
+            throw new JSONException("No city in forecast response");
+        }
+        return FetchResult.succeeded(location, collector, fetchedAt);
+    }
+
+    /**
+     * Parses the cached response for the request as if it had just been fetched.
+     *
+     * @return the cached forecast, or null if it couldn't be used.
+     */
+    private FetchResult replayCachedResponse(ForecastResponseCache responseCache, String cacheKey,
+                                             ForecastResponseCache.Entry cached,
+                                             SyncLocation location) {
+        InputStream body = responseCache.openBody(cacheKey);
+        if (body == null) {
+            return null;
+        }
+        try {
+            ForecastCollector collector = new ForecastCollector(SunshineSyncAdapter.NUM_DAYS);
+            FetchResult result = toFetchResult(location,
+                    OwmForecastParser.parse(body, collector), collector, cached.fetchedAt);
+            Log.d(LOG_TAG, "Replayed cached forecast for " + location + " from " + cached.fetchedAt);
+            return result.forecast != null ? result : null;
+        } catch (IOException | JSONException e) {
+            Log.w(LOG_TAG, "Unable to replay cached forecast", e);
+            return null;
+        } finally {
+            try {
+                body.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the database already has weather from today on for the location.
+     */
+    private boolean hasForecast(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
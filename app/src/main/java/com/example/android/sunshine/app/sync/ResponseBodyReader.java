@@ -0,0 +1,169 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads an HTTP response body into a byte buffer that is kept between requests.
+ *
+ * Call {@link #prepare(HttpURLConnection)} before connecting to ask for a gzip encoded body;
+ * {@link #read(HttpURLConnection)} then inflates it on the fly if the server obliged.  Setting
+ * Accept-Encoding ourselves turns off HttpURLConnection's transparent gzip, which is what lets us
+ * see the compressed size.
+ *
+ * After each read the reader knows how many bytes came over the wire and how long was spent
+ * decoding them, as opposed to waiting on the socket.  Not thread safe: use one reader per
+ * fetching thread.
+ */
+public class ResponseBodyReader {
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+
+    // Used when the server doesn't send a Content-Length.  A 14 day forecast is around 6KB.
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    // JSON forecasts compress about 6-8x; guessing on the high side avoids regrowing the buffer.
+    private static final int GZIP_EXPANSION_GUESS = 8;
+
+    private byte[] mBuffer = new byte[DEFAULT_BUFFER_SIZE];
+    private int mLength;
+    private long mWireBytes;
+    private long mDecodeNanos;
+    private boolean mGzipped;
+
+    /**
+     * Asks the server for a compressed body.  Must be called before the connection is opened.
+     */
+    public void prepare(HttpURLConnection urlConnection) {
+        urlConnection.setRequestProperty(ACCEPT_ENCODING, GZIP);
+    }
+
+    /**
+     * Empties the buffer and zeroes the counts, before a request that may not read a body.
+     */
+    public void reset() {
+        mLength = 0;
+        mWireBytes = 0;
+        mDecodeNanos = 0;
+        mGzipped = false;
+    }
+
+    /**
+     * Reads the whole response body, replacing whatever the buffer held before.
+     *
+     * @return the number of decoded bytes in the buffer.
+     */
+    public int read(HttpURLConnection urlConnection) throws IOException {
+        mGzipped = GZIP.equalsIgnoreCase(urlConnection.getHeaderField(CONTENT_ENCODING));
+        int contentLength = urlConnection.getContentLength();
+        if (contentLength > 0) {
+            long expected = mGzipped ? (long) contentLength * GZIP_EXPANSION_GUESS : contentLength;
+            ensureCapacity((int) Math.min(expected, Integer.MAX_VALUE - 8));
+        }
+
+        CountingInputStream wire = new CountingInputStream(urlConnection.getInputStream());
+        InputStream body = mGzipped ? new GZIPInputStream(wire) : wire;
+        try {
+            long start = System.nanoTime();
+            mLength = 0;
+            int read;
+            while ((read = body.read(mBuffer, mLength, mBuffer.length - mLength)) != -1) {
+                mLength += read;
+                if (mLength == mBuffer.length) {
+                    ensureCapacity(mBuffer.length * 2);
+                }
+            }
+            long total = System.nanoTime() - start;
+
+            mWireBytes = wire.mCount;
+            // Whatever wasn't spent blocked on the socket went to inflating (or copying) bytes.
+            mDecodeNanos = Math.max(0, total - wire.mReadNanos);
+            return mLength;
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * @return a stream over the body that was last read.  It shares the buffer, so it is only
+     * valid until the next call to read.
+     */
+    public InputStream newInputStream() {
+        return new ByteArrayInputStream(mBuffer, 0, mLength);
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public long getWireBytes() {
+        return mWireBytes;
+    }
+
+    public long getDecodeNanos() {
+        return mDecodeNanos;
+    }
+
+    public boolean isGzipped() {
+        return mGzipped;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            byte[] grown = new byte[capacity];
+            System.arraycopy(mBuffer, 0, grown, 0, mLength);
+            mBuffer = grown;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the socket and the time spent waiting for them.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+        long mReadNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
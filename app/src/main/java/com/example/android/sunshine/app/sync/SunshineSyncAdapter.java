@@ -3,15 +3,17 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,44 +24,47 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
+import android.text.format.DateUtils;
 import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationRegistry;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.example.android.sunshine.app.wearable.WearableService;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until SyncScheduler adapts it.
     // 60 seconds (1 minute) * 180 = 3 hours
-    public static final int SYNC_INTERVAL = 60 * 1;
+    public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
 //    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 1;
@@ -79,6 +84,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] SAVED_LOCATION_PROJECTION = new String[] {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_COORD_LAT = 1;
+    private static final int INDEX_COORD_LONG = 2;
+
+    // Number of days of forecast to ask OWM for.
+    static final int NUM_DAYS = 14;
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -89,301 +108,455 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // How many forecasts may be downloaded at once when several locations are synced.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+
+    // Bounded pool shared by every sync, so a long list of saved locations can't open more
+    // connections than this at a time.  Idle threads go away between syncs.
+    private static final ThreadPoolExecutor sFetchExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sFetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static volatile SyncPipelineStats sLastSyncStats;
+
+    private final SyncRetryPolicy mRetryPolicy = new SyncRetryPolicy();
+    private final WeatherSource mWeatherSource;
+    // The syncs running on this adapter, by the thread each runs on, so the framework can
+    // cancel one without touching the others.
+    private final Map<Thread, SyncCoalescer.Sync> mRunningSyncs =
+            new HashMap<Thread, SyncCoalescer.Sync>();
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OwmWeatherSource(context));
+    }
+
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource) {
         super(context, autoInitialize);
+        mWeatherSource = weatherSource;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        long syncStart = System.nanoTime();
+        SyncPipelineStats stats = new SyncPipelineStats();
+
+        final List<SyncLocation> locations = getLocationsToSync(getContext());
+        SyncCoalescer.Sync sync = SyncCoalescer.begin(locations.get(0).key(), new Runnable() {
+            @Override
+            public void run() {
+                // Interrupting the sync thread doesn't unblock a socket read, so close the
+                // connections.  Only this sync's locations are aborted.
+                for (SyncLocation location : locations) {
+                    mWeatherSource.cancel(location);
+                }
             }
-
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+        });
+        synchronized (mRunningSyncs) {
+            mRunningSyncs.put(Thread.currentThread(), sync);
+        }
+        SyncPipelineStats.beginSync();
+        try {
+            PendingWrites writes = new PendingWrites();
+            List<FetchResult> results = fetchAndPrepare(locations, writes, stats);
+            if (sync.isCancelled()) {
+                // A newer location made this sync obsolete; its replacement is already queued.
+                // Don't store what we got, and don't back off for the fetches we aborted.
+                Log.d(LOG_TAG, "Sync cancelled");
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            boolean changed = writeWeatherData(writes, syncResult, stats);
+            if (!syncResult.databaseError) {
+                cacheResponses(results);
             }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            publish(changed, results, stats);
+            if (writes.fetchedAny) {
+                trimWeatherData(syncResult);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            mRetryPolicy.apply(getContext(), results, syncResult);
+            SyncScheduler.onSyncFinished(getContext(), allSucceeded(results),
+                    changed && writes.forecastChanged, writes.nearTermChanged);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            SyncPipelineStats.endSync();
+            synchronized (mRunningSyncs) {
+                mRunningSyncs.remove(Thread.currentThread());
             }
+            SyncCoalescer.finish(sync);
         }
-        return;
+
+        stats.finish(syncStart);
+        sLastSyncStats = stats;
+        Log.d(LOG_TAG, stats.toString());
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Called when syncs run one at a time, so this cancels the only one running.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
+    @Override
+    public void onSyncCanceled() {
+        synchronized (mRunningSyncs) {
+            for (SyncCoalescer.Sync sync : mRunningSyncs.values()) {
+                sync.cancel();
+            }
+        }
+        super.onSyncCanceled();
+    }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    /**
+     * Called instead of {@link #onSyncCanceled()} when parallel syncs are allowed, which the
+     * framework only supports from Honeycomb on.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void onSyncCanceled(Thread thread) {
+        SyncCoalescer.Sync sync;
+        synchronized (mRunningSyncs) {
+            sync = mRunningSyncs.get(thread);
+        }
+        if (sync != null) {
+            sync.cancel();
+        }
+        super.onSyncCanceled(thread);
+    }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    /**
+     * @return where the most recent sync in this process spent its time, or null if there
+     * hasn't been one yet.
+     */
+    public static SyncPipelineStats getLastSyncStats() {
+        return sLastSyncStats;
+    }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    private static SyncLocation getPreferredLocation(Context context) {
+        // We no longer need just the location String, but also potentially the latitude and
+        // longitude, in case we are syncing based on a new Place Picker API result.
+        String locationQuery = Utility.getPreferredLocation(context);
+        if (Utility.isLocationLatLonAvailable(context)) {
+            return new SyncLocation(locationQuery,
+                    Utility.getLocationLatitude(context),
+                    Utility.getLocationLongitude(context),
+                    true);
+        }
+        return new SyncLocation(locationQuery, true);
+    }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    /**
+     * @return the preferred location, followed by every other saved location if the user asked
+     * for all of them to be refreshed.  Saved means every location ever looked up; see
+     * Utility.isSyncAllLocations.
+     */
+    private List<SyncLocation> getLocationsToSync(Context context) {
+        List<SyncLocation> locations = new ArrayList<SyncLocation>();
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        SyncLocation preferred = getPreferredLocation(context);
+        locations.add(preferred);
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        if (Utility.isSyncAllLocations(context)) {
+            Cursor cursor = context.getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    SAVED_LOCATION_PROJECTION,
+                    null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    String locationSetting = cursor.getString(INDEX_LOCATION_SETTING);
+                    if (preferred.locationSetting.equals(locationSetting)) {
+                        continue;
+                    }
+                    // Saved settings may be Place Picker addresses OWM can't look up, so ask
+                    // for the coordinates OWM gave us the first time around.
+                    locations.add(new SyncLocation(locationSetting,
+                            cursor.getDouble(INDEX_COORD_LAT),
+                            cursor.getDouble(INDEX_COORD_LONG),
+                            false));
+                }
+                cursor.close();
+            }
+        }
+        return locations;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches every location, a few at a time on the fetch pool, and prepares each forecast for
+     * the database on this thread as soon as it arrives, while the rest are still downloading.
+     * A single location is fetched on the sync thread, as before.
+     */
+    private List<FetchResult> fetchAndPrepare(List<SyncLocation> locations,
+                                              PendingWrites writes,
+                                              final SyncPipelineStats stats) {
+        List<FetchResult> results = new ArrayList<FetchResult>(locations.size());
+        if (locations.size() == 1) {
+            FetchResult result = fetch(locations.get(0), stats);
+            prepare(result, writes, stats);
+            results.add(result);
+            return results;
+        }
 
+        // The completion service's queue hands each result over in the order it finishes.
+        CompletionService<FetchResult> fetches =
+                new ExecutorCompletionService<FetchResult>(sFetchExecutor);
+        List<Future<FetchResult>> futures = new ArrayList<Future<FetchResult>>(locations.size());
+        for (final SyncLocation location : locations) {
+            futures.add(fetches.submit(new Callable<FetchResult>() {
+                @Override
+                public FetchResult call() {
+                    return fetch(location, stats);
+                }
+            }));
+        }
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            for (int i = 0; i < futures.size(); i++) {
+                FetchResult result = fetches.take().get();
+                prepare(result, writes, stats);
+                results.add(result);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // The sync was cancelled.  Whatever didn't make it counts as a network failure.
+            Log.e(LOG_TAG, "Error fetching forecasts", e);
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).cancel(true);
+                if (!containsLocation(results, locations.get(i))) {
+                    results.add(FetchResult.failed(locations.get(i),
+                            SyncRetryPolicy.FAILURE_NETWORK));
                 }
             }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return results;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    private static boolean allSucceeded(List<FetchResult> results) {
+        for (FetchResult result : results) {
+            if (result.failure != SyncRetryPolicy.FAILURE_NONE) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    private static boolean containsLocation(List<FetchResult> results, SyncLocation location) {
+        for (FetchResult result : results) {
+            if (result.location == location) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                double high;
-                double low;
+    /**
+     * Fetch stage: download and parse one location.  Runs on the fetch pool.
+     */
+    private FetchResult fetch(SyncLocation location, SyncPipelineStats stats) {
+        long start = System.nanoTime();
+        int allocations = Debug.getThreadAllocCount();
+        try {
+            FetchResult result = mWeatherSource.fetch(location);
+            stats.recordTransfer(result.wireBytes, result.decodedBytes, result.decodeNanos);
+            return result;
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Error fetching " + location, e);
+            return FetchResult.failed(location, SyncRetryPolicy.FAILURE_NETWORK);
+        } finally {
+            stats.record(SyncPipelineStats.STAGE_FETCH, start, allocations);
+        }
+    }
 
-                String description;
-                int weatherId;
+    /**
+     * Prepare stage: make sure the location is in the database, date the fetched days and work
+     * out which of them are new or changed.  Nothing is written to the weather table yet.
+     */
+    private void prepare(FetchResult result, PendingWrites writes, SyncPipelineStats stats) {
+        ForecastCollector forecast = result.forecast;
+        if (forecast == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        int allocations = Debug.getThreadAllocCount();
+
+        writes.fetchedAny = true;
+        // A location we haven't stored yet is inserted in the same batch as its weather, which
+        // refers to it by back-reference.  Until then it has no rows to compare against.  If a
+        // parallel sync stores it first, the insert hands back that row instead.
+        long locationId = findLocation(result.location.locationSetting);
+        int locationInsertIndex = -1;
+        if (locationId == -1) {
+            locationInsertIndex = writes.operations.size();
+            writes.operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(buildLocationValues(result.location.locationSetting,
+                            forecast.cityName, forecast.cityLatitude, forecast.cityLongitude))
+                    .build());
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        // A replayed response may be a few days old, so its first days can already be over.
+        int julianStartDay = Time.getJulianDay(result.fetchedAt, writes.gmtoff);
+        List<ContentValues> days = new ArrayList<ContentValues>(forecast.cVVector.size());
+        for (int i = 0; i < forecast.cVVector.size(); i++) {
+            if (julianStartDay + i < writes.julianToday) {
+                continue;
+            }
+            ContentValues weatherValues = forecast.cVVector.get(i);
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    writes.dayTime.setJulianDay(julianStartDay + i));
+            days.add(weatherValues);
+        }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+        ForecastDelta delta = ForecastDelta.compute(
+                getContext().getContentResolver(), locationId, days);
+        for (ContentValues day : delta.inserts) {
+            ContentProviderOperation.Builder insert = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(day);
+            if (locationInsertIndex != -1) {
+                insert.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationInsertIndex);
+            }
+            writes.operations.add(insert.build());
+        }
+        writes.operations.addAll(delta.updates);
+        writes.inserts += delta.inserts.size();
+        writes.updates += delta.updates.size();
+        writes.unchanged += delta.unchanged;
+        writes.nearTermChanged |= delta.nearTermChanged;
+        writes.forecastChanged |= delta.forecastChanged;
+
+        stats.record(SyncPipelineStats.STAGE_PREPARE, start, allocations);
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * Write stage: new locations and days, and changed columns of days we already have, all in
+     * one applyBatch.  The provider commits it as a single transaction and notifies observers
+     * once.  If the stored forecast is already identical nothing is written.
+     *
+     * @return whether anything in the weather table changed.
+     */
+    private boolean writeWeatherData(PendingWrites writes, SyncResult syncResult,
+                                     SyncPipelineStats stats) {
+        long start = System.nanoTime();
+        int allocations = Debug.getThreadAllocCount();
+
+        boolean written = false;
+        if (!writes.operations.isEmpty()) {
+            try {
+                getContext().getContentResolver()
+                        .applyBatch(WeatherContract.CONTENT_AUTHORITY, writes.operations);
+                written = true;
+                syncResult.stats.numInserts += writes.inserts;
+                syncResult.stats.numUpdates += writes.updates;
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error writing forecast", e);
+                syncResult.databaseError = true;
+            }
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        Log.d(LOG_TAG, "Sync Complete. " + writes.inserts + " Inserted, "
+                + writes.updates + " Updated, " + writes.unchanged + " Unchanged");
+        stats.record(SyncPipelineStats.STAGE_WRITE, start, allocations);
+        return written && (writes.inserts > 0 || writes.updates > 0);
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * Moves the weather that has fallen out of each location's retention window into the
+     * archive, so the weather table doesn't build up an endless history, and reclaims the space
+     * while the device is idle or charging.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void trimWeatherData(SyncResult syncResult) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // No provider call() before Honeycomb: delete the days past the default window in
+            // one go, without archiving them.
+            int retentionDays =
+                    getContext().getResources().getInteger(R.integer.weather_retention_days);
+            syncResult.stats.numDeletes += resolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[] {Long.toString(WeatherContract.normalizeDate(
+                            System.currentTimeMillis() - retentionDays * DateUtils.DAY_IN_MILLIS))});
+            return;
+        }
+        Bundle extras = new Bundle();
+        extras.putBoolean(WeatherContract.EXTRA_RECLAIM_SPACE,
+                SyncScheduler.isMaintenanceWindow(getContext()));
+        Bundle result = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_TRIM_WEATHER, null, extras);
+        if (result != null) {
+            syncResult.stats.numDeletes += result.getInt(WeatherContract.RESULT_DELETED_ROWS);
+        }
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Publish stage: tell everyone showing the forecast that it changed, and report the
+     * preferred location's status.
+     */
+    private void publish(boolean changed, List<FetchResult> results, SyncPipelineStats stats) {
+        long start = System.nanoTime();
+        int allocations = Debug.getThreadAllocCount();
+
+        if (changed) {
+            updateWidgets();
+            updateMuzei();
+            notifyWeather();
+        }
+        for (FetchResult result : results) {
+            if (result.location.preferred) {
+                setLocationStatus(getContext(), result.locationStatus);
+            }
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        stats.record(SyncPipelineStats.STAGE_PUBLISH, start, allocations);
+    }
 
-                cVVector.add(weatherValues);
-            }
+    /**
+     * Rows waiting for the write stage, gathered from every location in the sync.
+     */
+    private static class PendingWrites {
+        // Everything the sync will write, in order, for one applyBatch.
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        int inserts;
+        int updates;
+        int unchanged;
+        boolean nearTermChanged;
+        boolean forecastChanged;
+        boolean fetchedAny;
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // day it was fetched, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        final long gmtoff;
+        // we start at the day returned by local time. Otherwise this is a mess.
+        final int julianToday;
+        // now we work exclusively in UTC
+        final Time dayTime = new Time();
+
+        PendingWrites() {
+            Time now = new Time();
+            now.setToNow();
+            gmtoff = now.gmtoff;
+            julianToday = Time.getJulianDay(System.currentTimeMillis(), gmtoff);
+        }
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+    /**
+     * Saves the responses whose forecasts were just written, with their validators.  Saved any
+     * earlier, a failed write would be followed by a 304 and the forecast never stored.
+     */
+    private static void cacheResponses(List<FetchResult> results) {
+        for (FetchResult result : results) {
+            if (result.response != null) {
+                result.response.commit();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-//            context.startService(new Intent(String.valueOf(WearableService.class)));
-
-//            startService(new Intent(this, WearableService.class));
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-//            context.startService(new Intent(ACTION_DATA_UPDATED)
-//                    .setClass(context, WearableService.class));
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         }
     }
 
@@ -513,53 +686,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the location with this setting, or -1 if it isn't stored yet.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
+    private long findLocation(String locationSetting) {
+        return LocationRegistry.find(getContext().getContentResolver(), locationSetting);
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    private static ContentValues buildLocationValues(String locationSetting, String cityName,
+                                                     double lat, double lon) {
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
     }
 
     /**
@@ -582,15 +727,41 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Requests for a location that a
+     * running or pending sync already covers are merged into it, and running syncs for a
+     * location the user has since changed are cancelled.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        String locationKey = getPreferredLocation(context).key();
+        Account account = getSyncAccount(context);
+        String authority = context.getString(R.string.content_authority);
+        if (account == null) {
+            // No account means no sync adapter to run, so nothing was requested.
+            Log.e("SunshineSyncAdapter", "No sync account; can't sync " + locationKey);
+            return;
+        }
+        switch (SyncCoalescer.request(locationKey)) {
+            case SyncCoalescer.REQUEST_COALESCED:
+                Log.d("SunshineSyncAdapter", "Sync for " + locationKey + " already underway");
+                return;
+            case SyncCoalescer.REQUEST_SUPERSEDES:
+                // The coalescer already cancelled the obsolete syncs, and only those.
+                Log.d("SunshineSyncAdapter", "Cancelled syncs superseded by " + locationKey);
+                break;
+            case SyncCoalescer.REQUEST_NEW:
+            default:
+                break;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        try {
+            ContentResolver.requestSync(account, authority, bundle);
+        } catch (RuntimeException e) {
+            SyncCoalescer.abandon(locationKey);
+            throw e;
+        }
     }
 
     /**
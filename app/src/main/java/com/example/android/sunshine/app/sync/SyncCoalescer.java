@@ -0,0 +1,170 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges requests for an immediate sync into the sync that is already going to happen.
+ *
+ * Changing the location, picking a place and the GCM alert all ask for an expedited sync, and a
+ * few quick changes used to queue several full syncs back to back.  Here we remember which
+ * location each running sync is fetching and which one the last requested sync will fetch.  A
+ * request for any of those is already taken care of.  A request for a different location
+ * replaces the pending one, and makes the running syncs for other locations obsolete, so they
+ * are cancelled here rather than left to finish.
+ *
+ * The sync runs in the app's process, so this state is shared with it.  syncadapter.xml has the
+ * framework run our syncs one at a time, but nothing here relies on that: every running sync is
+ * tracked separately, and cancelling one leaves the others alone.
+ *
+ * A requested sync may never start: the framework can drop it, the account can go away, or the
+ * process can die first.  So a pending request only covers later ones for a while, and one that
+ * couldn't be scheduled at all is forgotten straight away.
+ */
+final class SyncCoalescer {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({REQUEST_NEW, REQUEST_COALESCED, REQUEST_SUPERSEDES})
+    @interface Decision {}
+
+    // Nothing covers this location yet: ask the framework for a sync.
+    static final int REQUEST_NEW = 0;
+    // A running or pending sync already fetches this location: nothing to do.
+    static final int REQUEST_COALESCED = 1;
+    // Running syncs fetched a location the user has moved away from and were cancelled: sync.
+    static final int REQUEST_SUPERSEDES = 2;
+
+    /**
+     * One running sync, and how to stop it.
+     */
+    static final class Sync {
+        // The preferred location the sync is fetching.
+        final String locationKey;
+        private final Runnable mOnCancel;
+        private volatile boolean mCancelled;
+
+        /**
+         * @param onCancel aborts the sync's fetches, from whichever thread cancels it.
+         */
+        private Sync(String locationKey, Runnable onCancel) {
+            this.locationKey = locationKey;
+            mOnCancel = onCancel;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Marks this sync obsolete, so it stores nothing, and aborts its fetches.
+         */
+        void cancel() {
+            mCancelled = true;
+            if (mOnCancel != null) {
+                mOnCancel.run();
+            }
+        }
+    }
+
+    // The syncs that are running, in the order they began.
+    private static final List<Sync> sInFlight = new ArrayList<Sync>();
+    // How long a requested sync may take to start before we stop counting on it.  Expedited
+    // syncs normally start within seconds; requesting again is harmless, the framework merges
+    // identical requests.
+    static final long PENDING_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    // The preferred location of the last sync we requested that hasn't started yet, or null.
+    private static String sPending;
+    // When sPending was requested, in SystemClock.elapsedRealtime() time.
+    private static long sPendingSince;
+
+    private SyncCoalescer() {
+    }
+
+    /**
+     * Records a request for an immediate sync of the location.
+     */
+    @Decision
+    static int request(String locationKey) {
+        return request(locationKey, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param now the current SystemClock.elapsedRealtime().
+     */
+    @Decision
+    static synchronized int request(String locationKey, long now) {
+        if (sPending != null && now - sPendingSince > PENDING_TIMEOUT_MILLIS) {
+            // Never started; don't let it swallow requests any longer.
+            sPending = null;
+        }
+        boolean covered = locationKey.equals(sPending)
+                || (sPending == null && isInFlight(locationKey));
+        if (!covered) {
+            sPending = locationKey;
+            sPendingSince = now;
+        }
+        // Whatever covers the request, syncs still fetching another location are obsolete.
+        boolean superseded = false;
+        for (Sync sync : sInFlight) {
+            if (!locationKey.equals(sync.locationKey) && !sync.isCancelled()) {
+                sync.cancel();
+                superseded = true;
+            }
+        }
+        if (covered) {
+            return REQUEST_COALESCED;
+        }
+        return superseded ? REQUEST_SUPERSEDES : REQUEST_NEW;
+    }
+
+    private static boolean isInFlight(String locationKey) {
+        for (Sync sync : sInFlight) {
+            if (locationKey.equals(sync.locationKey) && !sync.isCancelled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called when a sync starts fetching the location.  Any sync that starts for the pending
+     * location covers the request, whether or not it was the one we asked for.
+     *
+     * @param onCancel aborts the sync's fetches if a newer location makes it obsolete; may be
+     *                 null.
+     * @return the running sync, to check for cancellation and to pass to {@link #finish(Sync)}.
+     */
+    static synchronized Sync begin(String locationKey, Runnable onCancel) {
+        Sync sync = new Sync(locationKey, onCancel);
+        sInFlight.add(sync);
+        if (locationKey.equals(sPending)) {
+            sPending = null;
+        }
+        return sync;
+    }
+
+    /**
+     * Called when the sync we just asked for couldn't be scheduled, so it won't cover anything.
+     */
+    static synchronized void abandon(String locationKey) {
+        if (locationKey.equals(sPending)) {
+            sPending = null;
+        }
+    }
+
+    static synchronized void finish(Sync sync) {
+        sInFlight.remove(sync);
+    }
+
+    // Only for tests.
+    static synchronized void reset() {
+        sInFlight.clear();
+        sPending = null;
+    }
+}
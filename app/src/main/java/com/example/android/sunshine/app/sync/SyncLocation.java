@@ -0,0 +1,47 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * A location the sync should fetch a forecast for.
+ */
+final class SyncLocation {
+    // The location setting the forecast is stored under.
+    final String locationSetting;
+
+    // When set, the forecast is requested by coordinates rather than by the setting string.
+    final boolean hasCoordinates;
+    final double latitude;
+    final double longitude;
+
+    // True for the user's preferred location, the only one whose status we report.
+    final boolean preferred;
+
+    SyncLocation(String locationSetting, boolean preferred) {
+        this.locationSetting = locationSetting;
+        this.hasCoordinates = false;
+        this.latitude = 0;
+        this.longitude = 0;
+        this.preferred = preferred;
+    }
+
+    SyncLocation(String locationSetting, double latitude, double longitude, boolean preferred) {
+        this.locationSetting = locationSetting;
+        this.hasCoordinates = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.preferred = preferred;
+    }
+
+    /**
+     * @return a key that is the same for two locations only if they fetch the same forecast.
+     */
+    String key() {
+        return hasCoordinates
+                ? locationSetting + "@" + latitude + "," + longitude
+                : locationSetting;
+    }
+
+    @Override
+    public String toString() {
+        return locationSetting;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.support.annotation.IntDef;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Where one sync spent its time, stage by stage.
+ *
+ * A sync runs as a pipeline: forecasts are fetched and parsed on the fetch pool, each one is
+ * handed to the sync thread as soon as it is ready and prepared for the database (location row,
+ * dates, diff against what is stored) while the others are still downloading, then everything is
+ * written at once and the widgets, Muzei and the notification are told about it.
+ *
+ * For every stage we keep the number of items that went through it, the wall time they took and
+ * the objects they allocated.  Fetches run in parallel, so their times add up to more than the
+ * sync took.  Counting allocations slows everything down, so they are only counted while a sync
+ * runs in a debug build, or while {@link #setAllocationCounting(boolean)} is on.  Otherwise they
+ * read 0.
+ *
+ * The fetches' response bodies are added up too: bytes on the wire, bytes once decoded, and the
+ * time spent decoding them rather than waiting on the network.
+ */
+public final class SyncPipelineStats {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_FETCH, STAGE_PREPARE, STAGE_WRITE, STAGE_PUBLISH})
+    public @interface Stage {}
+
+    // Download and parse one location, on the fetch pool.
+    public static final int STAGE_FETCH = 0;
+    // Find the location row and diff one forecast against the database, on the sync thread.
+    public static final int STAGE_PREPARE = 1;
+    // Insert, update and age out rows for every location at once.
+    public static final int STAGE_WRITE = 2;
+    // Widgets, Muzei and the notification.
+    public static final int STAGE_PUBLISH = 3;
+
+    private static final int STAGE_COUNT = 4;
+    private static final String[] STAGE_NAMES = {"fetch", "prepare", "write", "publish"};
+
+    private final int[] mItems = new int[STAGE_COUNT];
+    private final long[] mWallNanos = new long[STAGE_COUNT];
+    private final long[] mAllocations = new long[STAGE_COUNT];
+    private long mTotalNanos;
+    private long mWireBytes;
+    private long mDecodedBytes;
+    private long mDecodeNanos;
+
+    // Counting is process-wide, and syncs may overlap, so it stays on while any of them wants it.
+    private static int sCountingSyncs;
+    private static boolean sCountingRequested;
+    private static boolean sCounting;
+
+    /**
+     * Turns allocation counting on or off for the whole process.
+     */
+    public static synchronized void setAllocationCounting(boolean enabled) {
+        sCountingRequested = enabled;
+        updateAllocationCounting();
+    }
+
+    /**
+     * Counts allocations until the matching {@link #endSync()}, in debug builds.
+     */
+    static synchronized void beginSync() {
+        if (BuildConfig.DEBUG) {
+            sCountingSyncs++;
+            updateAllocationCounting();
+        }
+    }
+
+    static synchronized void endSync() {
+        if (BuildConfig.DEBUG) {
+            sCountingSyncs--;
+            updateAllocationCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void updateAllocationCounting() {
+        boolean counting = sCountingRequested || sCountingSyncs > 0;
+        if (counting == sCounting) {
+            return;
+        }
+        sCounting = counting;
+        if (counting) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Records one item going through a stage on the calling thread.
+     *
+     * @param startNanos {@link System#nanoTime()} when the item entered the stage.
+     * @param startAllocations {@link Debug#getThreadAllocCount()} when the item entered the stage.
+     */
+    @SuppressWarnings("deprecation")
+    synchronized void record(@Stage int stage, long startNanos, int startAllocations) {
+        mItems[stage]++;
+        mWallNanos[stage] += System.nanoTime() - startNanos;
+        mAllocations[stage] += Debug.getThreadAllocCount() - startAllocations;
+    }
+
+    /**
+     * Adds one fetch's response body.
+     */
+    synchronized void recordTransfer(long wireBytes, long decodedBytes, long decodeNanos) {
+        mWireBytes += wireBytes;
+        mDecodedBytes += decodedBytes;
+        mDecodeNanos += decodeNanos;
+    }
+
+    synchronized void finish(long syncStartNanos) {
+        mTotalNanos = System.nanoTime() - syncStartNanos;
+    }
+
+    public synchronized int getItemCount(@Stage int stage) {
+        return mItems[stage];
+    }
+
+    public synchronized long getWallNanos(@Stage int stage) {
+        return mWallNanos[stage];
+    }
+
+    public synchronized long getAllocationCount(@Stage int stage) {
+        return mAllocations[stage];
+    }
+
+    public synchronized long getWireBytes() {
+        return mWireBytes;
+    }
+
+    public synchronized long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    public synchronized long getDecodeNanos() {
+        return mDecodeNanos;
+    }
+
+    /**
+     * @return how long the whole sync took, from reading the locations to the last publish.
+     */
+    public synchronized long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Sync took ")
+                .append(mTotalNanos / 1000000).append("ms:");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            sb.append(' ').append(STAGE_NAMES[stage])
+                    .append(" ").append(mItems[stage]).append("x ")
+                    .append(mWallNanos[stage] / 1000000).append("ms ")
+                    .append(mAllocations[stage]).append(" allocs;");
+        }
+        sb.append(' ').append(mWireBytes).append(" bytes on the wire, ")
+                .append(mDecodedBytes).append(" decoded, ")
+                .append(mDecodeNanos / 1000000).append("ms decoding");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.preference.PreferenceManager;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decides how the sync framework should back off after a failed fetch.
+ *
+ * Failures are sorted into a few kinds.  Network errors and server errors are worth retrying;
+ * a malformed response usually is too, but is reported as a parse error.  A location OWM doesn't
+ * know will keep failing until the user changes it, so it never triggers a retry.
+ *
+ * Retryable failures bump a consecutive failure count kept in the shared preferences, and the
+ * next sync is held back for a capped exponential delay with jitter, reported to the framework
+ * through {@link SyncResult#delayUntil}.  The first sync that gets through resets the count.
+ */
+public class SyncRetryPolicy {
+    private static final String LOG_TAG = SyncRetryPolicy.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FAILURE_NONE, FAILURE_NETWORK, FAILURE_SERVER, FAILURE_NOT_FOUND, FAILURE_MALFORMED})
+    public @interface Failure {}
+
+    public static final int FAILURE_NONE = 0;
+    // IOException while connecting or reading
+    public static final int FAILURE_NETWORK = 1;
+    // HTTP 5xx, or an error code in the OWM response
+    public static final int FAILURE_SERVER = 2;
+    // HTTP 404 or OWM "cod":"404": the location doesn't exist
+    public static final int FAILURE_NOT_FOUND = 3;
+    // The response wasn't the JSON we expected
+    public static final int FAILURE_MALFORMED = 4;
+
+    // First retry waits around this long; each further failure doubles it.
+    static final long BASE_DELAY_SECONDS = 30;
+    // ...up to this cap.
+    static final long MAX_DELAY_SECONDS = 60 * 60;
+
+    private final Random mRandom;
+
+    public SyncRetryPolicy() {
+        this(new Random());
+    }
+
+    SyncRetryPolicy(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * @return whether a failure of this kind backs off the next sync.
+     */
+    static boolean isRetryable(@Failure int failure) {
+        return failure == FAILURE_NETWORK
+                || failure == FAILURE_SERVER
+                || failure == FAILURE_MALFORMED;
+    }
+
+    /**
+     * @param attempt the number of consecutive failed syncs, starting at 1.
+     * @return how long to wait before the next attempt.  Half of the exponential delay is
+     * fixed and the other half is random, so devices that failed together don't all come back
+     * at the same moment.
+     */
+    long backoffSeconds(int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        long delay = Math.min(MAX_DELAY_SECONDS, BASE_DELAY_SECONDS << shift);
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half + 1));
+    }
+
+    /**
+     * Fills in the sync stats for the fetch results and, if any of them is worth retrying,
+     * tells the framework how long to back off.
+     */
+    public void apply(Context context, List<FetchResult> results, SyncResult syncResult) {
+        boolean retry = false;
+        for (FetchResult result : results) {
+            retry |= isRetryable(result.failure);
+            switch (result.failure) {
+                case FAILURE_NETWORK:
+                case FAILURE_SERVER:
+                    syncResult.stats.numIoExceptions++;
+                    break;
+                case FAILURE_MALFORMED:
+                    syncResult.stats.numParseExceptions++;
+                    break;
+                case FAILURE_NOT_FOUND:
+                    syncResult.stats.numSkippedEntries++;
+                    break;
+                case FAILURE_NONE:
+                default:
+                    break;
+            }
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String failureCountKey = context.getString(R.string.pref_sync_failure_count);
+        if (!retry) {
+            if (prefs.getInt(failureCountKey, 0) != 0) {
+                prefs.edit().remove(failureCountKey).commit();
+            }
+            return;
+        }
+
+        int attempt = prefs.getInt(failureCountKey, 0) + 1;
+        prefs.edit().putInt(failureCountKey, attempt).commit();
+
+        long delaySeconds = backoffSeconds(attempt);
+        syncResult.delayUntil = System.currentTimeMillis() / 1000 + delaySeconds;
+        Log.d(LOG_TAG, "Sync failed " + attempt + " time(s) in a row, backing off for "
+                + delaySeconds + "s");
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Picks the periodic sync interval from how the forecast has been behaving.
+ *
+ * A forecast that comes back unchanged sync after sync doesn't need checking as often, so every
+ * unchanged sync after the first doubles the interval, up to a cap.  A sync that finds the next
+ * few days noticeably different, or a GCM weather alert, drops straight to the shortest interval.
+ * Any other change puts us back on the base interval.
+ *
+ * The interval is then stretched on battery over a metered network and shortened while charging
+ * on an unmetered one.  The sync framework is only told about it when it actually changes.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // 60 seconds (1 minute) * 30 = 30 minutes
+    static final int MIN_INTERVAL_SECONDS = 60 * 30;
+    // 60 seconds (1 minute) * 180 = 3 hours
+    static final int BASE_INTERVAL_SECONDS = SunshineSyncAdapter.SYNC_INTERVAL;
+    // 60 seconds (1 minute) * 720 = 12 hours
+    static final int MAX_INTERVAL_SECONDS = 60 * 720;
+
+    /**
+     * Call after every sync.
+     *
+     * @param succeeded whether every location was fetched, even if it was not modified.
+     * @param changed whether the sync changed a day we already had.  The day appended at the
+     *                far end of the window on every new day doesn't count.
+     * @param volatileForecast whether the next few days changed noticeably.
+     */
+    public static void onSyncFinished(Context context, boolean succeeded, boolean changed,
+                                      boolean volatileForecast) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String streakKey = context.getString(R.string.pref_sync_unchanged_streak);
+        int streak = prefs.getInt(streakKey, 0);
+
+        if (volatileForecast || changed) {
+            streak = 0;
+        } else if (succeeded) {
+            streak++;
+        } else {
+            // A failed sync tells us nothing about the weather; SyncRetryPolicy deals with it.
+            return;
+        }
+        prefs.edit().putInt(streakKey, streak).commit();
+        reschedule(context, baseIntervalSeconds(streak, volatileForecast));
+    }
+
+    /**
+     * Call when a weather alert arrives: sync now, and keep syncing often for a while.
+     */
+    public static void onWeatherAlert(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putInt(context.getString(R.string.pref_sync_unchanged_streak), 0).commit();
+        reschedule(context, MIN_INTERVAL_SECONDS);
+        SunshineSyncAdapter.syncImmediately(context);
+    }
+
+    /**
+     * @param unchangedStreak the number of syncs in a row that found nothing new.
+     * @return the interval for the forecast alone, before the device state is considered.
+     */
+    static int baseIntervalSeconds(int unchangedStreak, boolean volatileForecast) {
+        if (volatileForecast) {
+            return MIN_INTERVAL_SECONDS;
+        }
+        int doublings = Math.min(Math.max(unchangedStreak - 1, 0), 8);
+        return (int) Math.min((long) BASE_INTERVAL_SECONDS << doublings, MAX_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Syncs are cheap while charging on Wi-Fi and expensive on battery over mobile data.
+     */
+    static int adjustForDevice(int intervalSeconds, boolean charging, boolean unmetered) {
+        if (charging && unmetered) {
+            return Math.max(intervalSeconds / 2, MIN_INTERVAL_SECONDS);
+        } else if (!charging && !unmetered) {
+            return Math.min(intervalSeconds * 2, MAX_INTERVAL_SECONDS);
+        }
+        return intervalSeconds;
+    }
+
+    private static void reschedule(Context context, int baseIntervalSeconds) {
+        int interval = adjustForDevice(baseIntervalSeconds, isCharging(context),
+                isUnmetered(context));
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String intervalKey = context.getString(R.string.pref_sync_interval);
+        if (prefs.getInt(intervalKey, SunshineSyncAdapter.SYNC_INTERVAL) == interval) {
+            return;
+        }
+        Log.d(LOG_TAG, "Sync interval is now " + interval + "s");
+        SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+        prefs.edit().putInt(intervalKey, interval).commit();
+    }
+
+    /**
+     * @return whether this is a good time for maintenance the user would otherwise notice, such
+     * as reclaiming database space: the device is charging, or its screen is off.
+     */
+    @SuppressWarnings("deprecation")
+    static boolean isMaintenanceWindow(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return isCharging(context) || !pm.isScreenOn();
+    }
+
+    private static boolean isCharging(Context context) {
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the last battery state right away.
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return cm.getActiveNetworkInfo() != null
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+}
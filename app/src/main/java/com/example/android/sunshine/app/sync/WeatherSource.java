@@ -0,0 +1,23 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Where the sync gets its forecasts from.
+ *
+ * Implementations download and parse the forecast for a location but never write to the
+ * database; the sync adapter commits every location's result together.  Fetches for different
+ * locations may run at the same time on the sync's fetch pool, so implementations must be
+ * thread safe.
+ */
+interface WeatherSource {
+    /**
+     * @return the outcome of the fetch.  Failures are reported in the result, not thrown.
+     */
+    FetchResult fetch(SyncLocation location);
+
+    /**
+     * Aborts the fetches of the location in progress, which then fail with FAILURE_NETWORK.
+     * Called from another thread when a sync is cancelled; fetches of other locations, and
+     * later ones, are not affected.
+     */
+    void cancel(SyncLocation location);
+}
@@ -71,6 +71,8 @@ public class WearableService extends Service
 
         String locationQuery = Utility.getPreferredLocation(getApplicationContext());
 
+        // Not a compact URI: one day comes back from the provider's day-row cache, which is
+        // already a copy that holds no CursorWindow.
         Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
 
         Cursor cursor = getApplicationContext().getContentResolver().query(weatherUri, WEATHER_INFORMATION, null, null, null);